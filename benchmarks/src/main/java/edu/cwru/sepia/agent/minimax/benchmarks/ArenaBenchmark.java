@@ -0,0 +1,71 @@
+package edu.cwru.sepia.agent.minimax.benchmarks;
+
+import edu.cwru.sepia.agent.minimax.GameState;
+import edu.cwru.sepia.agent.minimax.GameStateChild;
+import edu.cwru.sepia.agent.minimax.MinimaxAlphaBeta;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * maxVal and minVal alone, with and without the search arena. The root's own work in alphaBetaSearch (picking
+ * the child to return) is left out, so gc.alloc.rate.norm is what the recursive search allocates per search and
+ * should read 0 with arena=on.
+ * <p>
+ * The tables are emptied before every search as in SearchBenchmark; emptying them does not allocate. The warmup
+ * searches grow the arena to its final size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArenaBenchmark {
+    @Param({"open", "maze"})
+    public String map;
+
+    @Param({"2v2"})
+    public String matchup;
+
+    @Param({"4", "6"})
+    public int depth;
+
+    @Param({"off", "on"})
+    public String arena;
+
+    @Param({"off", "on"})
+    public String inPlace;
+
+    private GameStateChild root;
+    private MinimaxAlphaBeta agent;
+
+    @Setup
+    public void setUp() {
+        GameState state = Boards.create(map, matchup);
+        state.setEvaluation(true, false);
+        root = new GameStateChild(null, state);
+        agent = new MinimaxAlphaBeta(0, new String[]{Integer.toString(depth), "arena=" + arena, "inPlace=" + inPlace});
+    }
+
+    @Setup(Level.Invocation)
+    public void clear() {
+        agent.clearSearchHistory();
+    }
+
+    @Benchmark
+    public double search() {
+        return agent.alphaBetaValue(root, depth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+}
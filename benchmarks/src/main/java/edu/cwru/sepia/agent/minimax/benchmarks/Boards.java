@@ -0,0 +1,214 @@
+package edu.cwru.sepia.agent.minimax.benchmarks;
+
+import edu.cwru.sepia.agent.minimax.GameState;
+
+import java.util.Random;
+
+/**
+ * Fixed starting positions for the benchmarks, built without SEPIA. The first two maps are 19x13 like the
+ * assignment's.
+ * <ul>
+ * <li>open: no trees</li>
+ * <li>maze: three walls of trees with gaps at alternating ends, so path distances are far from straight
+ * line distances</li>
+ * <li>field: 48x32 without trees, large enough for the spatial index, which the 19x13 maps are too small for</li>
+ * </ul>
+ * The footmen start on the left and the archers on the right in one of the matchups 2v2, 2v1 or 1v1 of the
+ * assignment, or 4v4, 8v8 or 10v10 spread down both sides for scaling. Joint actions of more than two units are
+ * only practical with factored=on. 50v50 packs each side into the five columns by its edge and 50v50mix scatters
+ * both sides over the whole map, too many units to search but enough to exercise the spatial index on the field.
+ * <p>
+ * create(map, matchup, random) places the units at random instead, for games that do not all start alike.
+ */
+public final class Boards {
+    static final int WIDTH = 19, HEIGHT = 13;
+    private static final int FIELD_WIDTH = 48, FIELD_HEIGHT = 32;
+
+    private static final int FOOTMAN_HP = 160, FOOTMAN_ATTACK = 10, FOOTMAN_RANGE = 1;
+    private static final int ARCHER_HP = 50, ARCHER_ATTACK = 6, ARCHER_RANGE = 8;
+
+    private Boards() {
+    }
+
+    /**
+     * @param map     open, maze or field
+     * @param matchup 2v2, 2v1, 1v1, 4v4, 8v8, 10v10, 50v50 or 50v50mix
+     */
+    public static GameState create(String map, String matchup) {
+        int width = width(map);
+        int height = height(map);
+        boolean[] taken = new boolean[width * height];
+        GameState.Builder builder = newBuilder(map, taken);
+
+        int footmen, archers;
+        switch (matchup) {
+            case "2v2":
+                footmen = 2;
+                archers = 2;
+                break;
+            case "2v1":
+                footmen = 2;
+                archers = 1;
+                break;
+            case "1v1":
+                footmen = 1;
+                archers = 1;
+                break;
+            case "4v4":
+                return addLines(builder, 4, width, height);
+            case "8v8":
+                return addLines(builder, 8, width, height);
+            case "10v10":
+                return addLines(builder, 10, width, height);
+            case "50v50":
+                return addBlocks(builder, 50, width);
+            case "50v50mix":
+                return addScattered(builder, taken, 50, width, height);
+            default:
+                throw new IllegalArgumentException("Unknown matchup " + matchup);
+        }
+
+        builder.addUnit(0, 1, 1, FOOTMAN_HP, FOOTMAN_ATTACK, FOOTMAN_RANGE);
+        if (footmen == 2) {
+            builder.addUnit(1, 1, height - 2, FOOTMAN_HP, FOOTMAN_ATTACK, FOOTMAN_RANGE);
+        }
+        builder.addUnit(2, width - 2, 2, ARCHER_HP, ARCHER_ATTACK, ARCHER_RANGE);
+        if (archers == 2) {
+            builder.addUnit(3, width - 2, height - 3, ARCHER_HP, ARCHER_ATTACK, ARCHER_RANGE);
+        }
+        return builder.build();
+    }
+
+    /**
+     * A varied start for the match runner: the map of create with each unit on a random free cell of the three
+     * columns next to its side's edge, footmen on the left and archers on the right
+     *
+     * @param map     open, maze or field
+     * @param matchup nvm for n footmen with ids [0, n) and m archers with ids [n, n + m)
+     */
+    public static GameState create(String map, String matchup, Random random) {
+        String[] sides = matchup.split("v");
+        if (sides.length != 2) {
+            throw new IllegalArgumentException("Unknown matchup " + matchup);
+        }
+        int footmen = Integer.parseInt(sides[0]);
+        int archers = Integer.parseInt(sides[1]);
+        int width = width(map);
+        int height = height(map);
+        if (footmen < 1 || archers < 1 || Math.max(footmen, archers) > 3 * (height - 2)) {
+            throw new IllegalArgumentException("Matchup " + matchup + " does not fit");
+        }
+        boolean[] taken = new boolean[width * height];
+        GameState.Builder builder = newBuilder(map, taken);
+        for (int i = 0; i < footmen; i++) {
+            int cell = freeCell(taken, 1, width, height, random);
+            builder.addFootman(i, cell % width, cell / width, FOOTMAN_HP, FOOTMAN_ATTACK, FOOTMAN_RANGE);
+        }
+        for (int i = 0; i < archers; i++) {
+            int cell = freeCell(taken, width - 4, width, height, random);
+            builder.addArcher(footmen + i, cell % width, cell / width, ARCHER_HP, ARCHER_ATTACK, ARCHER_RANGE);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param trees Marked with the map's trees
+     */
+    private static GameState.Builder newBuilder(String map, boolean[] trees) {
+        GameState.Builder builder = new GameState.Builder(width(map), height(map));
+        switch (map) {
+            case "open":
+            case "field":
+                break;
+            case "maze":
+                addWall(builder, trees, 5, 0, HEIGHT - 3);
+                addWall(builder, trees, 9, 2, HEIGHT - 1);
+                addWall(builder, trees, 13, 0, HEIGHT - 3);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown map " + map);
+        }
+        return builder;
+    }
+
+    private static int width(String map) {
+        return map.equals("field") ? FIELD_WIDTH : WIDTH;
+    }
+
+    private static int height(String map) {
+        return map.equals("field") ? FIELD_HEIGHT : HEIGHT;
+    }
+
+    /**
+     * Takes a random cell not taken yet in columns [x, x + 3) and rows [1, height - 1)
+     */
+    private static int freeCell(boolean[] taken, int x, int width, int height, Random random) {
+        while (true) {
+            int cell = x + random.nextInt(3) + (1 + random.nextInt(height - 2)) * width;
+            if (!taken[cell]) {
+                taken[cell] = true;
+                return cell;
+            }
+        }
+    }
+
+    /**
+     * n footmen with ids [0, n) down the left edge and n archers with ids [n, 2n) down the right edge
+     */
+    private static GameState addLines(GameState.Builder builder, int n, int width, int height) {
+        for (int i = 0; i < n; i++) {
+            int y = 1 + i * (height - 3) / (n - 1);
+            builder.addFootman(i, 1, y, FOOTMAN_HP, FOOTMAN_ATTACK, FOOTMAN_RANGE);
+            builder.addArcher(n + i, width - 2, y, ARCHER_HP, ARCHER_ATTACK, ARCHER_RANGE);
+        }
+        return builder.build();
+    }
+
+    /**
+     * n footmen with ids [0, n) in columns of ten from the left edge and n archers with ids [n, 2n) in columns of
+     * ten from the right edge, clear of the maze's walls for n up to 50
+     */
+    private static GameState addBlocks(GameState.Builder builder, int n, int width) {
+        for (int i = 0; i < n; i++) {
+            int y = 1 + i % 10;
+            builder.addFootman(i, i / 10, y, FOOTMAN_HP, FOOTMAN_ATTACK, FOOTMAN_RANGE);
+            builder.addArcher(n + i, width - 1 - i / 10, y, ARCHER_HP, ARCHER_ATTACK, ARCHER_RANGE);
+        }
+        return builder.build();
+    }
+
+    /**
+     * n footmen with ids [0, n) and n archers with ids [n, 2n) on free cells anywhere, always the same ones. Each
+     * unit can step north or east without leaving the map or walking into a tree.
+     *
+     * @param taken Marked with the map's trees
+     */
+    private static GameState addScattered(GameState.Builder builder, boolean[] taken, int n, int width,
+                                          int height) {
+        boolean[] trees = taken.clone();
+        Random random = new Random(n);
+        for (int i = 0; i < 2 * n; i++) {
+            int cell;
+            do {
+                cell = width + random.nextInt(width * (height - 1));
+            } while (taken[cell] || cell % width == width - 1 || trees[cell + 1] || trees[cell - width]);
+            taken[cell] = true;
+            if (i < n) {
+                builder.addFootman(i, cell % width, cell / width, FOOTMAN_HP, FOOTMAN_ATTACK, FOOTMAN_RANGE);
+            } else {
+                builder.addArcher(i, cell % width, cell / width, ARCHER_HP, ARCHER_ATTACK, ARCHER_RANGE);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Trees at column x from row fromY to toY inclusive
+     */
+    private static void addWall(GameState.Builder builder, boolean[] trees, int x, int fromY, int toY) {
+        for (int y = fromY; y <= toY; y++) {
+            builder.addTree(x, y);
+            trees[x + y * WIDTH] = true;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package edu.cwru.sepia.agent.minimax.benchmarks;
+
+import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.agent.minimax.GameState;
+import edu.cwru.sepia.util.Direction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The range and nearest enemy queries of the evaluation with many units per side, where on the field they go
+ * through the spatial index. The 19x13 maps are too small for it, so there they are scanned for comparison. The
+ * index pays once the sides are mixed up (50v50mix); with the sides in blocks at opposite edges (50v50) the
+ * nearest enemy is always far, the index's worst case. These have too many units to search, so this times the per
+ * node work instead:
+ * <ul>
+ * <li>evaluate: the utility of a fresh copy, every query from scratch with evaluation=scratch and only the cached
+ * sums with evaluation=incremental</li>
+ * <li>step: eight footmen taking a step and the utility of the result, which with evaluation=incremental is
+ * mostly the updates of the cached entries those moves touch</li>
+ * </ul>
+ * 8v8 is scanned unit by unit on every map.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CrowdBenchmark {
+    @Param({"open", "maze", "field"})
+    public String map;
+
+    @Param({"8v8", "50v50", "50v50mix"})
+    public String matchup;
+
+    @Param({"scratch", "incremental"})
+    public String evaluation;
+
+    private GameState root;
+    private Map<Integer, Action> step;
+
+    @Setup
+    public void setUp() {
+        root = Boards.create(map, matchup);
+        root.setEvaluation(evaluation.equals("incremental"), false);
+        // footmen 0 to 7 head up or right out of their starting places; joint actions hold at most eight units
+        step = new HashMap<Integer, Action>();
+        for (int id = 0; id < 8; id++) {
+            step.put(id, Action.createPrimitiveMove(id, id == 0 ? Direction.NORTH : Direction.EAST));
+        }
+    }
+
+    @Benchmark
+    public double evaluate() {
+        return root.copy().getUtility();
+    }
+
+    @Benchmark
+    public double step() {
+        return root.getChild(step).getUtility();
+    }
+}
@@ -0,0 +1,97 @@
+package edu.cwru.sepia.agent.minimax.benchmarks;
+
+import edu.cwru.sepia.agent.minimax.GameState;
+import edu.cwru.sepia.agent.minimax.GameStateChild;
+import edu.cwru.sepia.agent.minimax.LeafBatch;
+import edu.cwru.sepia.agent.minimax.MinimaxAlphaBeta;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per node work of the search: expanding a state, evaluating one and ordering the children of one.
+ * <p>
+ * getUtility caches its result on the state, so utility evaluates a fresh copy every time; copy measures the
+ * copy alone so that it can be subtracted.
+ * <p>
+ * evaluateChildren evaluates a copy of every child of the root one at a time, as the search does one ply above
+ * the leaves, and evaluateChildrenBatched evaluates them all at once with the LeafBatch of batch=on, which also
+ * saves building the children that getChildren measures. Divide the number of children by the time for
+ * evaluations per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameStateBenchmark {
+    @Param({"open", "maze"})
+    public String map;
+
+    @Param({"2v2", "2v1", "1v1"})
+    public String matchup;
+
+    private GameState root;
+    private List<GameStateChild> children;
+    private MinimaxAlphaBeta agent;
+    private LeafBatch batch;
+
+    @Setup
+    public void setUp() {
+        root = Boards.create(map, matchup);
+        root.setEvaluation(true, false);
+        children = root.getChildren();
+        agent = new MinimaxAlphaBeta(0, new String[]{"1"});
+        batch = new LeafBatch();
+    }
+
+    @Benchmark
+    public List<GameStateChild> getChildren() {
+        return root.getChildren();
+    }
+
+    @Benchmark
+    public GameState copy() {
+        return root.copy();
+    }
+
+    @Benchmark
+    public double getUtility() {
+        return root.copy().getUtility();
+    }
+
+    @Benchmark
+    public double evaluateChildren() {
+        double sum = 0;
+        for (GameStateChild child : children) {
+            sum += child.state.copy().getUtility();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double evaluateChildrenBatched() {
+        double sum = 0;
+        for (int i = 0, n = batch.evaluateChildren(root); i < n; i++) {
+            sum += batch.getUtility(i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public List<GameStateChild> orderChildrenWithHeuristics() {
+        return agent.orderChildrenWithHeuristics(children);
+    }
+}
@@ -0,0 +1,225 @@
+package edu.cwru.sepia.agent.minimax.benchmarks;
+
+import edu.cwru.sepia.agent.minimax.ArcherPolicy;
+import edu.cwru.sepia.agent.minimax.GameState;
+import edu.cwru.sepia.agent.minimax.MinimaxAlphaBeta;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Plays whole footmen against archers games without SEPIA, many at once, to compare agent settings and to catch
+ * engine changes that cost throughput. The footmen are MinimaxAlphaBeta through playTurn and the archers an
+ * ArcherPolicy, on random starts from Boards. Each configuration is one argument holding the agent's own
+ * arguments, e.g. "4 tt=on" or "1 engine=mcts timeMs=5", and gets a report of games per second, the latency of
+ * the footmen's moves and the share of games won, drawn (out of turns) and lost.
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar edu.cwru.sepia.agent.minimax.benchmarks.MatchRunner \
+ *     [--games=1000] [--parallel=cores] [--maps=open,maze] [--matchup=2v2] [--archers=stand|kite] \
+ *     [--turns=100] [--seed=1] [--minRate=0] "agent args"...
+ * </pre>
+ * Games run in parallel on a fork-join pool, each worker reusing one agent from game to game with its search
+ * history cleared, so memory grows with parallel and not with games; ttBits keeps the tables small. Game i is
+ * played on map i modulo the number of maps from a start drawn with seed + i, so every configuration plays the
+ * same games. With --minRate the runner exits with status 1 if any configuration plays fewer games per second.
+ */
+public final class MatchRunner {
+    private static final int WIN = 0, DRAW = 1, LOSS = 2;
+
+    private int games = 1000;
+    private int parallel = Runtime.getRuntime().availableProcessors();
+    private String[] maps = {"open", "maze"};
+    private String matchup = "2v2";
+    private ArcherPolicy archers = ArcherPolicy.STAND;
+    private int turns = 100;
+    private long seed = 1;
+    private double minRate;
+
+    private MatchRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        MatchRunner runner = new MatchRunner();
+        List<String> configurations = new ArrayList<String>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                configurations.add(arg);
+                continue;
+            }
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Expected --name=value: " + arg);
+            }
+            String value = arg.substring(equals + 1);
+            switch (arg.substring(2, equals)) {
+                case "games":
+                    runner.games = Integer.parseInt(value);
+                    break;
+                case "parallel":
+                    runner.parallel = Integer.parseInt(value);
+                    break;
+                case "maps":
+                    runner.maps = value.split(",");
+                    break;
+                case "matchup":
+                    runner.matchup = value;
+                    break;
+                case "archers":
+                    runner.archers = ArcherPolicy.valueOf(value.toUpperCase());
+                    break;
+                case "turns":
+                    runner.turns = Integer.parseInt(value);
+                    break;
+                case "seed":
+                    runner.seed = Long.parseLong(value);
+                    break;
+                case "minRate":
+                    runner.minRate = Double.parseDouble(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (configurations.isEmpty()) {
+            configurations.add("4");
+        }
+
+        boolean passed = true;
+        for (String configuration : configurations) {
+            passed &= runner.run(configuration);
+        }
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Plays every game with one configuration and prints its report
+     *
+     * @return Whether it played at least minRate games per second
+     */
+    private boolean run(String configuration) throws InterruptedException, ExecutionException {
+        final String[] agentArgs = configuration.trim().split("\\s+");
+        final ThreadLocal<MinimaxAlphaBeta> agents = new ThreadLocal<MinimaxAlphaBeta>() {
+            @Override
+            protected MinimaxAlphaBeta initialValue() {
+                return new MinimaxAlphaBeta(0, agentArgs);
+            }
+        };
+        List<Callable<Game>> tasks = new ArrayList<Callable<Game>>(games);
+        for (int i = 0; i < games; i++) {
+            final String map = maps[i % maps.length];
+            final long gameSeed = seed + i;
+            tasks.add(new Callable<Game>() {
+                @Override
+                public Game call() {
+                    return play(agents.get(), Boards.create(map, matchup, new Random(gameSeed)));
+                }
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallel);
+        long start = System.nanoTime();
+        List<Future<Game>> results;
+        try {
+            results = pool.invokeAll(tasks);
+        } finally {
+            pool.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int[] outcomes = new int[3];
+        long[] latencies = new long[0];
+        int moves = 0;
+        for (Future<Game> result : results) {
+            Game game = result.get();
+            outcomes[game.outcome]++;
+            if (moves + game.moves > latencies.length) {
+                latencies = Arrays.copyOf(latencies, Math.max(2 * latencies.length, moves + game.moves));
+            }
+            System.arraycopy(game.latencies, 0, latencies, moves, game.moves);
+            moves += game.moves;
+        }
+        Arrays.sort(latencies, 0, moves);
+
+        double rate = games / seconds;
+        System.out.println(configuration + " (" + matchup + " on " + String.join(",", maps) + ", archers " +
+                archers.name().toLowerCase() + ")");
+        System.out.println(String.format("  %d games in %.1f s, %.1f games/s, %.1f moves/game", games, seconds, rate,
+                moves / (double) games));
+        System.out.println(String.format("  move latency p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, max %.3f ms",
+                percentile(latencies, moves, 0.5), percentile(latencies, moves, 0.9),
+                percentile(latencies, moves, 0.99), percentile(latencies, moves, 1)));
+        System.out.println(String.format("  won %.1f%%, drawn %.1f%%, lost %.1f%%", 100.0 * outcomes[WIN] / games,
+                100.0 * outcomes[DRAW] / games, 100.0 * outcomes[LOSS] / games));
+        if (rate < minRate) {
+            System.out.println(String.format("  below --minRate=%s", minRate));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * One game from start until a side is wiped out or the footmen have had their turns
+     */
+    private Game play(MinimaxAlphaBeta agent, GameState state) {
+        agent.clearSearchHistory();
+        Game game = new Game(turns);
+        game.outcome = DRAW;
+        while (game.moves < turns) {
+            long start = System.nanoTime();
+            state = agent.playTurn(state).state;
+            game.latencies[game.moves++] = System.nanoTime() - start;
+            if (isOver(state, game)) {
+                break;
+            }
+            state = archers.play(state);
+            if (isOver(state, game)) {
+                break;
+            }
+        }
+        // stops pondering; the states are not used
+        agent.terminalStep(null, null);
+        return game;
+    }
+
+    /**
+     * Records the outcome if a side is wiped out, which is when the utility is infinite
+     */
+    private static boolean isOver(GameState state, Game game) {
+        double utility = state.getUtility();
+        if (utility == Double.POSITIVE_INFINITY) {
+            game.outcome = WIN;
+        } else if (utility == Double.NEGATIVE_INFINITY) {
+            game.outcome = LOSS;
+        }
+        return game.outcome != DRAW;
+    }
+
+    /**
+     * @return The latency in ms that the fraction q of the first n sorted latencies are at or under
+     */
+    private static double percentile(long[] sorted, int n, double q) {
+        if (n == 0) {
+            return 0;
+        }
+        int index = Math.min(n - 1, Math.max(0, (int) Math.ceil(q * n) - 1));
+        return sorted[index] / 1e6;
+    }
+
+    private static final class Game {
+        private final long[] latencies;
+        private int moves;
+        private int outcome;
+
+        private Game(int turns) {
+            this.latencies = new long[turns];
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package edu.cwru.sepia.agent.minimax.benchmarks;
+
+import edu.cwru.sepia.agent.minimax.GameState;
+import edu.cwru.sepia.agent.minimax.GameStateChild;
+import edu.cwru.sepia.agent.minimax.MinimaxAlphaBeta;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Playout throughput of engine=mcts: one search of a fixed number of playouts per invocation, reported per
+ * playout, so the score is playouts per second. With threads=n the playouts are shared out between n trees.
+ * <p>
+ * SearchBenchmark times the alpha-beta search of the same positions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MctsBenchmark {
+    private static final int PLAYOUTS = 10000;
+
+    @Param({"open", "maze"})
+    public String map;
+
+    @Param({"2v2"})
+    public String matchup;
+
+    @Param({"heuristic", "random"})
+    public String rollout;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private GameStateChild root;
+    private MinimaxAlphaBeta agent;
+
+    @Setup
+    public void setUp() {
+        GameState state = Boards.create(map, matchup);
+        state.setEvaluation(true, false);
+        root = new GameStateChild(null, state);
+        agent = new MinimaxAlphaBeta(0, new String[]{"1", "engine=mcts", "playouts=" + PLAYOUTS, "rollout=" + rollout,
+                "threads=" + threads});
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PLAYOUTS)
+    public GameStateChild search() {
+        return agent.monteCarloSearch(root);
+    }
+}
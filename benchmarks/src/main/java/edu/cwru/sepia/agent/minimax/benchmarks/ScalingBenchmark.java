@@ -0,0 +1,70 @@
+package edu.cwru.sepia.agent.minimax.benchmarks;
+
+import edu.cwru.sepia.agent.minimax.GameState;
+import edu.cwru.sepia.agent.minimax.GameStateChild;
+import edu.cwru.sepia.agent.minimax.MinimaxAlphaBeta;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One cold search as the number of units grows, with the factored unit by unit expansion. An 8v8 search takes
+ * seconds, so each measurement is a single search.
+ * <p>
+ * -p factored=off -p matchup=2v2,4v4 compares with the joint action expansion. Its children are every
+ * combination of the side's unit actions, which is out of reach at 8v8 (and past 4v4 at depth 4).
+ * <p>
+ * 10v10 has sides too large for a JointAction, which are searched a unit at a time whatever factored is set to.
+ * Try it at depth 1.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScalingBenchmark {
+    @Param({"maze"})
+    public String map;
+
+    @Param({"2v2", "4v4", "8v8"})
+    public String matchup;
+
+    @Param({"2"})
+    public int depth;
+
+    @Param({"on"})
+    public String factored;
+
+    private GameStateChild root;
+    private MinimaxAlphaBeta agent;
+
+    @Setup
+    public void setUp() {
+        GameState state = Boards.create(map, matchup);
+        state.setEvaluation(true, false);
+        root = new GameStateChild(null, state);
+        agent = new MinimaxAlphaBeta(0, new String[]{Integer.toString(depth), "factored=" + factored});
+    }
+
+    @Setup(Level.Invocation)
+    public void clear() {
+        agent.clearSearchHistory();
+    }
+
+    @Benchmark
+    public double search() {
+        return agent.alphaBetaValue(root, depth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+}
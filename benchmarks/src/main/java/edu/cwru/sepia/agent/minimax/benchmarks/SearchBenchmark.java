@@ -0,0 +1,110 @@
+package edu.cwru.sepia.agent.minimax.benchmarks;
+
+import edu.cwru.sepia.agent.minimax.GameState;
+import edu.cwru.sepia.agent.minimax.GameStateChild;
+import edu.cwru.sepia.agent.minimax.MinimaxAlphaBeta;
+import edu.cwru.sepia.agent.minimax.SearchStats;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole turn's search with the default options at each depth. The transposition table and move ordering
+ * tables are emptied before every search, so each one is as cold as the first turn of a game.
+ * <p>
+ * Statistics are on so that nodes can be counted. Run with -p stats=off to measure their overhead, in which
+ * case the nodes column reads 0. Run with -p prune=off,legal,on to compare nodes and searches per second
+ * with the pruned move generation of the agent's prune option, and with -p batch=off,on to compare batched leaf
+ * evaluation. -p threads=1,2,4,8,16 gives the parallel search's scaling curve: nodes per second, and time to
+ * depth as the inverse of searches per second.
+ * <p>
+ * Runs in throughput mode because JMH reports the nodes counter as a rate in the benchmark's mode: the score is
+ * searches per second and nodes is nodes per second. Pass -bm avgt -tu ns for the time per search in ns/op, in
+ * which case the nodes column is not meaningful.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+    @Param({"open", "maze"})
+    public String map;
+
+    @Param({"2v2", "2v1", "1v1"})
+    public String matchup;
+
+    @Param({"2", "4", "6"})
+    public int depth;
+
+    @Param({"on"})
+    public String stats;
+
+    @Param({"off"})
+    public String prune;
+
+    @Param({"off"})
+    public String batch;
+
+    @Param({"1"})
+    public int threads;
+
+    private GameState root;
+    private MinimaxAlphaBeta agent;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Nodes {
+        public long nodes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            nodes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        root = Boards.create(map, matchup);
+        root.setEvaluation(true, false);
+        root.setPruning(prune.equals("legal"), prune.equals("on"));
+        agent = new MinimaxAlphaBeta(0, new String[]{Integer.toString(depth), "stats=" + stats, "prune=" + prune,
+                "batch=" + batch, "threads=" + threads});
+    }
+
+    @TearDown
+    public void tearDown() {
+        agent.terminalStep(null, null);
+    }
+
+    @Setup(Level.Invocation)
+    public void clear() {
+        agent.clearSearchHistory();
+    }
+
+    @Benchmark
+    public GameStateChild alphaBetaSearch(Nodes counter) {
+        SearchStats searchStats = agent.getStats();
+        long before = searchStats == null ? 0 : searchStats.getNodes() + searchStats.getLeaves();
+        GameStateChild best = agent.alphaBetaSearch(new GameStateChild(null, root), depth,
+                Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        if (searchStats != null) {
+            counter.nodes += searchStats.getNodes() + searchStats.getLeaves() - before;
+        }
+        return best;
+    }
+}
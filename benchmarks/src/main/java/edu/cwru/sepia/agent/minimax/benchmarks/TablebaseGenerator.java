@@ -0,0 +1,72 @@
+package edu.cwru.sepia.agent.minimax.benchmarks;
+
+import edu.cwru.sepia.agent.minimax.GameState;
+import edu.cwru.sepia.agent.minimax.Tablebase;
+
+import java.io.File;
+
+/**
+ * Builds the endgame tables of Tablebase for the maps of Boards, for the agent's tablebase=dir option, e.g. to
+ * play them with MatchRunner "4 tablebase=tablebases". For a SEPIA map, pass the GameState of its first turn to
+ * Tablebase.generate instead. The tables follow the agent's prune option, --prune=off building them for prune=off
+ * and --prune=legal for prune=legal and prune=on.
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar edu.cwru.sepia.agent.minimax.benchmarks.TablebaseGenerator \
+ *     [--maps=open,maze] [--footmen=1,2] [--prune=off,legal] [--dir=tablebases]
+ * </pre>
+ * Two footmen's tables on the 19x13 maps take a few hundred MB of memory to build and 50 to 75 MB on disk each.
+ */
+public final class TablebaseGenerator {
+    private TablebaseGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] maps = {"open", "maze"};
+        String[] footmen = {"1", "2"};
+        String[] prune = {"off", "legal"};
+        File directory = new File("tablebases");
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --name=value: " + arg);
+            }
+            String value = arg.substring(equals + 1);
+            switch (arg.substring(2, equals)) {
+                case "maps":
+                    maps = value.split(",");
+                    break;
+                case "footmen":
+                    footmen = value.split(",");
+                    break;
+                case "prune":
+                    prune = value.split(",");
+                    break;
+                case "dir":
+                    directory = new File(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create " + directory);
+        }
+
+        for (String map : maps) {
+            for (String rules : prune) {
+                if (!rules.equals("off") && !rules.equals("legal")) {
+                    throw new IllegalArgumentException("prune must be off or legal: " + rules);
+                }
+                for (String count : footmen) {
+                    long start = System.nanoTime();
+                    // the matchup only sets the units' stats, which every matchup shares
+                    GameState state = Boards.create(map, "2v2");
+                    state.setPruning(rules.equals("legal"), false);
+                    File file = Tablebase.generate(state, Integer.parseInt(count), directory);
+                    System.out.println(String.format("%s %sv1 prune=%s: %s, %.1f MB in %.1f s", map, count, rules,
+                            file, file.length() / 1e6, (System.nanoTime() - start) / 1e9));
+                }
+            }
+        }
+    }
+}
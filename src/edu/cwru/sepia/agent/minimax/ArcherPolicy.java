@@ -0,0 +1,65 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * Scripted archers, to play the footmen agent against without SEPIA. Every archer shoots the weakest living
+ * footman in range if there is one and otherwise acts by the policy. Archers decide on their own, so two may
+ * step onto the same cell just as in the joint actions the search considers.
+ */
+public enum ArcherPolicy {
+    /**
+     * Holds its ground until a footman comes into range
+     */
+    STAND,
+    /**
+     * Steps away from the footmen, taking the move getApproachScore rates best for the archers, and holds its
+     * ground if no move gains any distance
+     */
+    KITE;
+
+    /**
+     * @param state A position with the archers to move
+     * @return The position after the archers' joint action, with the footmen to move
+     */
+    public GameState play(GameState state) {
+        if (state.isPlayerTurn()) {
+            throw new IllegalArgumentException("The footmen are to move");
+        }
+        int[] actions = new int[state.getMaxUnitActions()];
+        long jointAction = JointAction.NONE;
+        for (int i = 0, n = state.getSideSize(); i < n; i++) {
+            if (state.isSideUnitAlive(i)) {
+                int count = state.getUnitActions(i, actions, false);
+                jointAction = JointAction.withUnitAction(jointAction, i, choose(state, i, actions, count));
+            }
+        }
+        return state.getChild(jointAction);
+    }
+
+    private int choose(GameState state, int index, int[] actions, int count) {
+        int attack = -1;
+        for (int k = 0; k < count; k++) {
+            int action = actions[k];
+            if (JointAction.isAttack(action) && state.getUnitHp(JointAction.targetOf(action)) > 0 &&
+                    (attack < 0 || state.getUnitHp(JointAction.targetOf(action)) <
+                            state.getUnitHp(JointAction.targetOf(attack)))) {
+                attack = action;
+            }
+        }
+        if (attack >= 0 || this == STAND) {
+            return attack >= 0 ? attack : JointAction.WAIT;
+        }
+        int best = JointAction.WAIT;
+        int bestScore = 0;
+        for (int k = 0; k < count; k++) {
+            int action = actions[k];
+            if (JointAction.isMove(action)) {
+                int score = state.getUnitApproachScore(index, action);
+                if (score > bestScore) {
+                    best = action;
+                    bestScore = score;
+                }
+            }
+        }
+        return best;
+    }
+}
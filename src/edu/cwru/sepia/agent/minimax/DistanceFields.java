@@ -0,0 +1,178 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Per map lookup tables for the distance features of the utility. The trees never move, so the tables are shared
+ * by every state of an episode and, through forMap, by every turn played on the same map.
+ * <p>
+ * Cells are numbered x + y * width. Both tables are filled in on first use, one row per target cell:
+ * <ul>
+ * <li>pathDistance: the length of the shortest 4-connected path around the trees, found by a breadth first search
+ * out of the target cell</li>
+ * <li>treesOnLine: the number of trees on the diagonal-then-straight line walked from a cell to the target</li>
+ * </ul>
+ * Rows are only kept while they fit in a fixed budget; after that rows are computed, used and thrown away, so
+ * large maps cost time instead of memory. All methods may be called from several search threads at once. Racing
+ * threads may compute the same row twice but always agree on its contents.
+ */
+final class DistanceFields {
+    /**
+     * Upper bound on the number of ints kept in distance rows and shorts kept in line rows
+     */
+    private static final int CACHE_BUDGET = 1 << 22;
+
+    private static volatile DistanceFields last;
+
+    private final int width, height, cells;
+    private final long[] obstacles;
+    private final int unreachable;
+    private final AtomicReferenceArray<int[]> distanceRows;
+    private final AtomicReferenceArray<short[]> lineRows;
+    private final AtomicInteger cachedDistanceRows = new AtomicInteger();
+    private final AtomicInteger cachedLineRows = new AtomicInteger();
+
+    private DistanceFields(int width, int height, long[] obstacles) {
+        this.width = width;
+        this.height = height;
+        this.cells = width * height;
+        this.obstacles = obstacles;
+        this.unreachable = cells;
+        this.distanceRows = new AtomicReferenceArray<int[]>(cells);
+        this.lineRows = new AtomicReferenceArray<short[]>(cells);
+    }
+
+    /**
+     * @param obstacles Bitboard of trees, bit x + y * width. Must not be modified afterwards.
+     * @return The tables for the map, reusing the previous turn's when the map is the same
+     */
+    static DistanceFields forMap(int width, int height, long[] obstacles) {
+        DistanceFields fields = last;
+        if (fields == null || fields.width != width || fields.height != height ||
+                !Arrays.equals(fields.obstacles, obstacles)) {
+            fields = new DistanceFields(width, height, obstacles);
+            last = fields;
+        }
+        return fields;
+    }
+
+    boolean isResource(int x, int y) {
+        int cell = x + y * width;
+        return (obstacles[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    /**
+     * @return Steps on the shortest path between the cells avoiding trees, or width * height if there is none
+     */
+    int pathDistance(int fromCell, int toCell) {
+        int[] row = distanceRows.get(toCell);
+        if (row == null) {
+            row = searchFrom(toCell);
+            if (reserveRow(cachedDistanceRows)) {
+                distanceRows.set(toCell, row);
+            }
+        }
+        int distance = row[fromCell];
+        return distance < 0 ? unreachable : distance;
+    }
+
+    /**
+     * @return The number of trees on the line walked from one cell towards the other, excluding the last cell
+     */
+    int treesOnLine(int fromCell, int toCell) {
+        short[] row = lineRows.get(toCell);
+        if (row == null) {
+            if (!reserveRow(cachedLineRows)) {
+                // a row that is not kept would only ever hold this one entry
+                return walkLine(fromCell % width, fromCell / width, toCell % width, toCell / width);
+            }
+            row = new short[cells];
+            Arrays.fill(row, (short) -1);
+            lineRows.set(toCell, row);
+        }
+        int trees = row[fromCell];
+        if (trees < 0) {
+            trees = walkLine(fromCell % width, fromCell / width, toCell % width, toCell / width);
+            row[fromCell] = (short) trees;
+        }
+        return trees;
+    }
+
+    /**
+     * Counts one more row of cells against the budget unless that would go over it
+     *
+     * @return Whether the row fits and may be kept
+     */
+    private boolean reserveRow(AtomicInteger cachedRows) {
+        while (true) {
+            int count = cachedRows.get();
+            if ((count + 1) * (long) cells > CACHE_BUDGET) {
+                return false;
+            }
+            if (cachedRows.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private int walkLine(int x, int y, int toX, int toY) {
+        int blocked = 0;
+        while (x != toX || y != toY) {
+            if (isResource(x, y)) {
+                blocked++;
+            }
+            if (x < toX) {
+                x++;
+            } else if (x > toX) {
+                x--;
+            }
+            if (y < toY) {
+                y++;
+            } else if (y > toY) {
+                y--;
+            }
+        }
+        return blocked;
+    }
+
+    /**
+     * Breadth first search out of a cell. Unreachable cells are left at -1.
+     */
+    private int[] searchFrom(int start) {
+        int[] distance = new int[cells];
+        Arrays.fill(distance, -1);
+        int[] queue = new int[cells];
+        int head = 0, tail = 0;
+        distance[start] = 0;
+        queue[tail++] = start;
+        while (head < tail) {
+            int cell = queue[head++];
+            int x = cell % width;
+            int y = cell / width;
+            int next = distance[cell] + 1;
+            if (x > 0 && visit(distance, cell - 1, next)) {
+                queue[tail++] = cell - 1;
+            }
+            if (x < width - 1 && visit(distance, cell + 1, next)) {
+                queue[tail++] = cell + 1;
+            }
+            if (y > 0 && visit(distance, cell - width, next)) {
+                queue[tail++] = cell - width;
+            }
+            if (y < height - 1 && visit(distance, cell + width, next)) {
+                queue[tail++] = cell + width;
+            }
+        }
+        return distance;
+    }
+
+    private boolean visit(int[] distance, int cell, int value) {
+        if (distance[cell] >= 0 || (obstacles[cell >>> 6] & (1L << cell)) != 0) {
+            return false;
+        }
+        distance[cell] = value;
+        return true;
+    }
+}
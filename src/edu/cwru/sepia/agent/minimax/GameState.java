@@ -1,7 +1,8 @@
 package edu.cwru.sepia.agent.minimax;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -15,262 +16,611 @@ import edu.cwru.sepia.environment.model.state.State;
 import edu.cwru.sepia.environment.model.state.Unit;
 import edu.cwru.sepia.util.Direction;
 
+/**
+ * A position in the footmen vs archers game.
+ * <p>
+ * Everything that can change during a search (each unit's x, y and hp) is packed into one int[] with
+ * UNIT_SIZE ints per unit. Everything that can't (the map, the trees and each unit's id, max hp, damage and range)
+ * lives in a MapLayout shared by every state searched from the same SEPIA state. Copying a state is therefore a
+ * single array copy, and iterating over the units never allocates.
+ * <p>
+ * The footmen come first, so units [0, numGood) are the player's and [numGood, numUnits) are the archers. Each
+ * side is stored in order of id. Dead units keep their slot with hp at or below 0.
+ * <p>
+ * Once a side has more units than are worth scanning, on a map large enough for range queries to skip most of
+ * it, range and nearest enemy queries about the side go through a UnitGrid spatial index kept alongside the units.
+ */
 public class GameState {
-    private final Board board;
-    private final boolean isPlayerTurn;
-    private boolean utilityCalculated = false;
+    private static final int X = 0, Y = 1, HP = 2, UNIT_SIZE = 3;
+    /**
+     * Sides of up to this many living units are scanned unit by unit, which is quicker than visiting the buckets of
+     * the spatial index around a query and keeping it up to date, and larger sides only indexed where
+     * UnitGrid.skipsBuckets. Sides this large cannot be searched a unit at a time, so the index only serves the
+     * evaluation of crowds; every search measured with it, down to 10v10, was slower than scanning.
+     */
+    private static final int SCAN_LIMIT = 32;
+
+    /**
+     * Only reassigned by copyFrom, when a reused state is pointed at another turn's position
+     */
+    private MapLayout layout;
+    private int[] units;
+    /**
+     * Cached pieces of the utility, see the incremental evaluation section. Null when evaluating from scratch.
+     */
+    private int[] eval;
+    /**
+     * See setEvaluation and setPruning. Like eval, they are copied into every state made from this one, so the
+     * states searched from a root follow its settings while states made before keep their own.
+     */
+    private boolean checkEvaluation, pruneIllegal, pruneDominated;
+    /**
+     * The lists of the layout's UnitGrid, null when no side is large enough to index
+     */
+    private int[] buckets;
+    private boolean isPlayerTurn;
+    private long zobrist;
+    private UndoStack undo;
+    private volatile boolean utilityCalculated = false;
     private double utility = 0.0;
 
     /**
-     * Class containing agents and resources (with locations) and several helper methods
+     * The trees, the map size and the parts of each unit that never change. Built once from the SEPIA state and
+     * shared read only by every GameState descended from it.
      */
-    private class Board {
-        private final boolean[][] isOccupied;
-        private final Map<Integer, MMAgent> agents = new HashMap<Integer, MMAgent>(4);
-        private final ArrayList<MMAgent> goodAgents = new ArrayList<MMAgent>(2);
-        private final ArrayList<MMAgent> badAgents = new ArrayList<MMAgent>(2);
-        private final Map<Integer, Resource> resources = new HashMap<Integer, Resource>();
+    private static final class MapLayout {
         private final int width, height;
-
-        public Board(int x, int y) {
-            isOccupied = new boolean[x][y];
-            this.width = x;
-            this.height = y;
-        }
-
-        public void addResource(int id, int x, int y) {
-            Resource resource = new Resource(id, x, y);
-            isOccupied[x][y] = true;
-            resources.put(resource.getID(), resource);
-        }
-
-        public void addAgent(int id, int x, int y, int hp, int possibleHp, int attackDamage, int attackRange) {
-            MMAgent agent = new MMAgent(id, x, y, hp, possibleHp, attackDamage, attackRange);
-            agents.put(id, agent);
-            if (agent.isGood()) {
-                goodAgents.add(agent);
-            } else {
-                badAgents.add(agent);
+        /**
+         * Bit (x + y * width) is set when the cell holds a tree
+         */
+        private final long[] obstacles;
+        private final int[] ids, possibleHp, attackDamage, attackRange;
+        /**
+         * Each unit's attack range as a mask of offsets, see reachOf. Units with the same range share one.
+         */
+        private final int[][] reach;
+        private final int numUnits, numGood;
+        private final int maxGoodRange;
+        private final UnitGrid grid;
+        private DistanceFields fields;
+        /**
+         * See getLayoutKey, 0 until first asked for
+         */
+        private long key;
+
+        private MapLayout(int width, int height, int numGood, int[] ids, int[] possibleHp, int[] attackDamage,
+                          int[] attackRange) {
+            this.width = width;
+            this.height = height;
+            this.obstacles = new long[(width * height + 63) >>> 6];
+            this.ids = ids;
+            this.possibleHp = possibleHp;
+            this.attackDamage = attackDamage;
+            this.attackRange = attackRange;
+            this.numUnits = ids.length;
+            this.numGood = numGood;
+            this.reach = new int[numUnits][];
+            int maxGoodRange = 0;
+            int maxRange = 0;
+            int livingGood = 0;
+            int livingBad = 0;
+            for (int i = 0; i < numUnits; i++) {
+                for (int j = 0; j < i && reach[i] == null; j++) {
+                    if (attackRange[j] == attackRange[i]) {
+                        reach[i] = reach[j];
+                    }
+                }
+                if (reach[i] == null) {
+                    reach[i] = reachOf(attackRange[i]);
+                }
+                if (i < numGood) {
+                    maxGoodRange = Math.max(maxGoodRange, attackRange[i]);
+                }
+                maxRange = Math.max(maxRange, attackRange[i]);
+                if (possibleHp[i] > 0) {
+                    if (i < numGood) {
+                        livingGood++;
+                    } else {
+                        livingBad++;
+                    }
+                }
             }
+            this.maxGoodRange = maxGoodRange;
+            boolean indexed = Math.max(livingGood, livingBad) > SCAN_LIMIT &&
+                    UnitGrid.skipsBuckets(width, height, maxRange);
+            this.grid = indexed ? new UnitGrid(width, height, numUnits, numGood) : null;
         }
 
-        private void moveAgentBy(int id, int xOffset, int yOffset) {
-            MMAgent agent = getAgent(id);
-            int currentX = agent.getXPosition();
-            int currentY = agent.getYPosition();
-            int nextX = currentX + xOffset;
-            int nextY = currentY + yOffset;
-            agent.setX(nextX);
-            agent.setY(nextY);
-        }
-
-        public void attackAgent(MMAgent attacker, MMAgent attacked) {
-            if (attacked != null && attacker != null) {
-                attacked.setHp(attacked.getHp() - attacker.getAttackDamage());
+        /**
+         * reach[dy] is the largest dx for which floor(hypot(dx, dy)) is still within range, the test the attack
+         * lists used to make with hypot for every pair of units. A unit can attack a cell iff its |dy| is below
+         * reach.length and its |dx| is at most reach[|dy|].
+         */
+        private static int[] reachOf(int range) {
+            int[] reach = new int[Math.max(range + 1, 0)];
+            for (int dy = 0; dy < reach.length; dy++) {
+                int dx = 0;
+                while (Math.floor(Math.hypot(dx + 1, dy)) <= range) {
+                    dx++;
+                }
+                reach[dy] = dx;
             }
+            return reach;
         }
 
-        public boolean isEmpty(int x, int y) {
-            return !isOccupied[x][y];
+        private void addResource(int x, int y) {
+            int cell = x + y * width;
+            obstacles[cell >>> 6] |= 1L << cell;
         }
 
-        public boolean isResource(int x, int y) {
-            return isOccupied[x][y];
+        private boolean isResource(int x, int y) {
+            int cell = x + y * width;
+            return (obstacles[cell >>> 6] & (1L << cell)) != 0;
         }
 
-        public boolean isOnBoard(int x, int y) {
+        private boolean isOnBoard(int x, int y) {
             return x >= 0 && x < width && y >= 0 && y < height;
         }
 
-        public boolean canMove(int x, int y) {
+        private boolean canMove(int x, int y) {
             return isOnBoard(x, y) && !isResource(x, y);
         }
 
-        public MMAgent getAgent(int id) {
-            MMAgent agent = agents.get(id);
-            if (!agent.isAlive()) {
-                return null;
+        private long key() {
+            if (key == 0) {
+                long hash = Zobrist.layout(width, height);
+                for (long word : obstacles) {
+                    hash = Zobrist.fold(hash, word);
+                }
+                hash = Zobrist.fold(hash, numGood);
+                for (int i = 0; i < numUnits; i++) {
+                    hash = Zobrist.fold(hash, ids[i]);
+                    hash = Zobrist.fold(hash, possibleHp[i]);
+                    hash = Zobrist.fold(hash, attackDamage[i]);
+                    hash = Zobrist.fold(hash, attackRange[i]);
+                }
+                key = hash;
             }
-            return agent;
+            return key;
         }
 
-        public Collection<MMAgent> getAllAgents() {
-            return agents.values();
+        /**
+         * @return The unit's slot or -1 if there is no unit with that id
+         */
+        private int indexOf(int id) {
+            int index = Arrays.binarySearch(ids, 0, numGood, id);
+            if (index < 0) {
+                index = Arrays.binarySearch(ids, numGood, numUnits, id);
+            }
+            return index < 0 ? -1 : index;
         }
+    }
 
-        public ArrayList<MMAgent> getAliveGoodAgents() {
-            ArrayList<MMAgent> alive = new ArrayList<>();
-            for (MMAgent a : this.goodAgents) {
-                if (a.isAlive())
-                    alive.add(a);
-            }
+    /**
+     * Constructor that takes from a SEPIA state view to generate my representation of state
+     * <p>
+     * This is only called on the initial state all children state are generated by the other constructor.
+     *
+     * @param state
+     */
+    public GameState(State.StateView state) {
+        this(state.getXExtent(), state.getYExtent(), unitsOf(state), treesOf(state));
+    }
+
+    /**
+     * Describes a position directly instead of through SEPIA, for benchmarks and other tools that run the search
+     * without a game. addUnit follows the assignment, where the footmen have ids 0 and 1; addFootman and
+     * addArcher allow any number of each.
+     */
+    public static class Builder {
+        private final int width, height;
+        private final List<int[]> units = new ArrayList<int[]>();
+        private final List<int[]> trees = new ArrayList<int[]>();
 
-            return alive;
+        public Builder(int width, int height) {
+            this.width = width;
+            this.height = height;
         }
 
-        public ArrayList<MMAgent> getAliveBadAgents() {
-            ArrayList<MMAgent> alive = new ArrayList<>();
-            for (MMAgent a : this.badAgents) {
-                if (a.isAlive())
-                    alive.add(a);
-            }
+        public Builder addUnit(int id, int x, int y, int hp, int basicAttack, int range) {
+            return id == 0 || id == 1 ? addFootman(id, x, y, hp, basicAttack, range) :
+                    addArcher(id, x, y, hp, basicAttack, range);
+        }
 
-            return alive;
+        public Builder addFootman(int id, int x, int y, int hp, int basicAttack, int range) {
+            units.add(new int[]{id, x, y, hp, basicAttack, range, 1});
+            return this;
         }
 
-        public double distance(MMAgent agent1, MMAgent agent2) {
-            return (Math.abs(agent1.getXPosition() - agent2.getXPosition()) + Math.abs(agent1.getYPosition() - agent2.getYPosition())) - 1;
+        public Builder addArcher(int id, int x, int y, int hp, int basicAttack, int range) {
+            units.add(new int[]{id, x, y, hp, basicAttack, range, 0});
+            return this;
         }
 
-        public double attackDistance(MMAgent agent1, MMAgent agent2) {
-            return Math.floor(Math.hypot(Math.abs(agent1.getXPosition() - agent2.getXPosition()), Math.abs(agent1.getYPosition() - agent2.getYPosition())));
+        public Builder addTree(int x, int y) {
+            trees.add(new int[]{x, y});
+            return this;
         }
 
-        private List<Integer> findAttackableAgents(MMAgent agent) {
-            List<Integer> attackable = new ArrayList<Integer>();
-            for (MMAgent otherAgent : getAllAgents()) {
-                if (otherAgent.getID() != agent.getID() && (otherAgent.isGood() != agent.isGood()) &&
-                        attackDistance(agent, otherAgent) <= agent.getAttackRange()) {
-                    attackable.add(otherAgent.getID());
-                }
-            }
-            return attackable;
+        /**
+         * @return The position with the footmen to move
+         */
+        public GameState build() {
+            return new GameState(width, height, units, trees);
         }
     }
 
     /**
-     * A representation of an agent either good (footman) or bad (archer)
+     * The footmen are player 0's units
      */
-    private class MMAgent {
-        private int hp;
-        private final int possibleHp, attackDamage, attackRange, id;
-        private int x, y;
-
-        public MMAgent(int id, int x, int y, int hp, int possibleHp, int attackDamage, int attackRange) {
-            this.id = id;
-            this.x = x;
-            this.y = y;
-            this.hp = hp;
-            this.possibleHp = possibleHp;
-            this.attackDamage = attackDamage;
-            this.attackRange = attackRange;
+    private static List<int[]> unitsOf(State.StateView state) {
+        List<Integer> footmen = state.getUnitIds(0);
+        List<int[]> units = new ArrayList<int[]>();
+        for (Unit.UnitView uv : state.getAllUnits()) {
+            units.add(new int[]{uv.getID(), uv.getXPosition(), uv.getYPosition(), uv.getHP(),
+                    uv.getTemplateView().getBasicAttack(), uv.getTemplateView().getRange(),
+                    footmen.contains(uv.getID()) ? 1 : 0});
         }
+        return units;
+    }
 
-        public int getID() {
-            return id;
+    private static List<int[]> treesOf(State.StateView state) {
+        List<int[]> trees = new ArrayList<int[]>();
+        for (ResourceNode.ResourceView resource : state.getAllResourceNodes()) {
+            trees.add(new int[]{resource.getXPosition(), resource.getYPosition()});
         }
+        return trees;
+    }
 
-        public int getXPosition() {
-            return x;
+    /**
+     * @param unitList {id, x, y, hp, basic attack, range, 1 for a footman or 0 for an archer} for every unit, in
+     *                 any order
+     * @param treeList {x, y} for every tree
+     */
+    private GameState(int width, int height, List<int[]> unitList, List<int[]> treeList) {
+        List<int[]> sorted = new ArrayList<int[]>(unitList);
+        sorted.sort(new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                return a[6] != b[6] ? Integer.compare(b[6], a[6]) : Integer.compare(a[0], b[0]);
+            }
+        });
+
+        int numUnits = sorted.size();
+        int[] ids = new int[numUnits];
+        int[] possibleHp = new int[numUnits];
+        int[] attackDamage = new int[numUnits];
+        int[] attackRange = new int[numUnits];
+        int numGood = 0;
+        this.units = new int[numUnits * UNIT_SIZE];
+        for (int i = 0; i < numUnits; i++) {
+            int[] unit = sorted.get(i);
+            numGood += unit[6];
+            ids[i] = unit[0];
+            possibleHp[i] = unit[3];
+            attackDamage[i] = unit[4];
+            attackRange[i] = unit[5];
+            units[i * UNIT_SIZE + X] = unit[1];
+            units[i * UNIT_SIZE + Y] = unit[2];
+            units[i * UNIT_SIZE + HP] = unit[3];
         }
 
-        public void setX(int x) {
-            this.x = x;
+        this.layout = new MapLayout(width, height, numGood, ids, possibleHp, attackDamage, attackRange);
+        for (int[] tree : treeList) {
+            this.layout.addResource(tree[0], tree[1]);
         }
-
-        public int getYPosition() {
-            return y;
+        this.layout.fields = DistanceFields.forMap(layout.width, layout.height, layout.obstacles);
+        if (layout.grid != null) {
+            this.buckets = layout.grid.newIndex();
+            for (int i = 0; i < numUnits; i++) {
+                layout.grid.insert(buckets, i, getX(i), getY(i));
+            }
         }
 
-        public void setY(int y) {
-            this.y = y;
-        }
+        this.isPlayerTurn = true;
 
-        public boolean isGood() {
-            return this.getID() == 0 || this.getID() == 1;
+        for (int i = 0; i < numUnits; i++) {
+            this.zobrist ^= positionKey(i) ^ healthKey(i);
         }
+    }
 
-        public boolean isAlive() {
-            return hp > 0;
-        }
+    /**
+     * This constructor uses the non-SEPIA representation of the game and is called for all
+     * except the first creation of a GameState
+     *
+     * @param gameState
+     */
+    public GameState(GameState gameState) {
+        this(gameState, !gameState.isPlayerTurn);
+    }
 
-        private int getHp() {
-            return hp;
+    /**
+     * Chooses how this state and every state made from it from now on are evaluated. Call it on the root state
+     * before any children are made.
+     *
+     * @param incremental Keep the expensive parts of the utility up to date as actions are applied instead of
+     *                    recomputing them for every evaluated state
+     * @param check       Also compute every utility from scratch and fail if the two differ (slow, for debugging)
+     */
+    public void setEvaluation(boolean incremental, boolean check) {
+        checkEvaluation = check;
+        eval = null;
+        if (incremental) {
+            eval = new int[evalSize()];
+            for (int good = 0; good < layout.numGood; good++) {
+                refreshEvaluation(good, getX(good), getY(good));
+            }
         }
+        utilityCalculated = false;
+    }
 
-        private void setHp(int hp) {
-            this.hp = hp;
-        }
+    /**
+     * Chooses which actions this state and every state made from it from now on leave out of their joint actions,
+     * see addUnitActions and collides. Call it on the root state before any joint actions are listed.
+     *
+     * @param illegal   Leave out the actions SEPIA would not carry out
+     * @param dominated Also leave out the actions that should not do better than another action of the same unit
+     */
+    public void setPruning(boolean illegal, boolean dominated) {
+        pruneIllegal = illegal || dominated;
+        pruneDominated = dominated;
+    }
 
-        private int getPossibleHp() {
-            return possibleHp;
-        }
+    private GameState(GameState gameState, boolean isPlayerTurn) {
+        this.layout = gameState.layout;
+        this.units = gameState.units.clone();
+        this.eval = gameState.eval == null ? null : gameState.eval.clone();
+        this.checkEvaluation = gameState.checkEvaluation;
+        this.pruneIllegal = gameState.pruneIllegal;
+        this.pruneDominated = gameState.pruneDominated;
+        this.buckets = gameState.buckets == null ? null : gameState.buckets.clone();
+        this.isPlayerTurn = isPlayerTurn;
+        this.zobrist = gameState.zobrist ^ (isPlayerTurn == gameState.isPlayerTurn ? 0 : Zobrist.SIDE_TO_MOVE);
+    }
 
-        private int getAttackDamage() {
-            return attackDamage;
-        }
+    /**
+     * Turns this state into the child a joint action of parent leads to, reusing this state's arrays. Lets the
+     * search keep one state per ply instead of allocating one per node.
+     *
+     * @param jointAction A JointAction of parent's player to move
+     */
+    void setToChild(GameState parent, long jointAction) {
+        copyFrom(parent, !parent.isPlayerTurn);
+        applyJointAction(jointAction, parent.isPlayerTurn);
+    }
 
-        private int getAttackRange() {
-            return attackRange;
-        }
+    /**
+     * setToChild for a joint action given unit by unit, see getChild(int[])
+     */
+    void setToChild(GameState parent, int[] actions) {
+        copyFrom(parent, !parent.isPlayerTurn);
+        applyJointAction(actions, parent.isPlayerTurn);
     }
 
     /**
-     * A representation of non-agents on the board - trees
+     * Turns this state into a copy of source, reusing this state's arrays
      */
-    private class Resource {
-        private final int id, x, y;
+    void setTo(GameState source) {
+        copyFrom(source, source.isPlayerTurn);
+    }
 
-        public Resource(int id, int x, int y) {
-            this.id = id;
-            this.x = x;
-            this.y = y;
+    private void copyFrom(GameState source, boolean isPlayerTurn) {
+        this.layout = source.layout;
+        if (units.length == source.units.length) {
+            System.arraycopy(source.units, 0, units, 0, units.length);
+        } else {
+            units = source.units.clone();
         }
+        eval = copyInto(source.eval, eval);
+        checkEvaluation = source.checkEvaluation;
+        pruneIllegal = source.pruneIllegal;
+        pruneDominated = source.pruneDominated;
+        buckets = copyInto(source.buckets, buckets);
+        this.isPlayerTurn = isPlayerTurn;
+        this.zobrist = source.zobrist ^ (isPlayerTurn == source.isPlayerTurn ? 0 : Zobrist.SIDE_TO_MOVE);
+        this.utilityCalculated = false;
+    }
 
-        public int getID() {
-            return id;
+    /**
+     * @return target holding the contents of source, or a new copy when target is missing or of another size
+     */
+    private static int[] copyInto(int[] source, int[] target) {
+        if (source == null) {
+            return null;
         }
-
-        public int getX() {
-            return x;
+        if (target == null || target.length != source.length) {
+            return source.clone();
         }
+        System.arraycopy(source, 0, target, 0, source.length);
+        return target;
+    }
 
-        public int getY() {
-            return y;
-        }
+    /**
+     * @return A copy of this state with the same player to move. The copy has its own undo history.
+     */
+    public GameState copy() {
+        return new GameState(this, this.isPlayerTurn);
+    }
+
+    public boolean isPlayerTurn() {
+        return isPlayerTurn;
     }
 
     /**
-     * Constructor that takes from a SEPIA state view to generate my representation of state
-     * <p>
-     * This is only called on the initial state all children state are generated by the other constructor.
+     * Zobrist hash of the unit positions, unit hp and side to move. Updated incrementally as actions are applied.
      *
-     * @param state
+     * @return
      */
-    public GameState(State.StateView state) {
-        this.board = new Board(state.getXExtent(), state.getYExtent());
+    public long getZobristHash() {
+        return zobrist;
+    }
 
-        for (Unit.UnitView uv : state.getAllUnits()) {
-            this.board.addAgent(uv.getID(), uv.getXPosition(), uv.getYPosition(), uv.getHP(), uv.getHP(), uv.getTemplateView().getBasicAttack(), uv.getTemplateView().getRange());
+    /**
+     * Hash of everything the zobrist hash leaves out because it never changes during a game: the map size, the
+     * trees and each unit's id, max hp, attack and range. Like the zobrist hash it is the same in every run, so
+     * the two together identify a position across episodes, as the position cache needs.
+     */
+    long getLayoutKey() {
+        return layout.key();
+    }
+
+    /**
+     * Two states are equal when they come from the same SEPIA state and have the same units in the same places
+     * with the same hp and the same player to move.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
         }
+        if (!(o instanceof GameState)) {
+            return false;
+        }
+        GameState other = (GameState) o;
+        return layout == other.layout && isPlayerTurn == other.isPlayerTurn && Arrays.equals(units, other.units);
+    }
 
-        for (ResourceNode.ResourceView resource : state.getAllResourceNodes()) {
-            this.board.addResource(resource.getID(), resource.getXPosition(), resource.getYPosition());
+    @Override
+    public int hashCode() {
+        return (int) (zobrist ^ (zobrist >>> 32));
+    }
+
+    private int getX(int unit) {
+        return units[unit * UNIT_SIZE + X];
+    }
+
+    private int getY(int unit) {
+        return units[unit * UNIT_SIZE + Y];
+    }
+
+    private int getHp(int unit) {
+        return units[unit * UNIT_SIZE + HP];
+    }
+
+    private boolean isAlive(int unit) {
+        return getHp(unit) > 0;
+    }
+
+    private boolean isGood(int unit) {
+        return unit < layout.numGood;
+    }
+
+    private long positionKey(int unit) {
+        return Zobrist.position(layout.ids[unit], layout.possibleHp[unit], getX(unit), getY(unit));
+    }
+
+    private long healthKey(int unit) {
+        return Zobrist.health(layout.ids[unit], layout.possibleHp[unit], getHp(unit));
+    }
+
+    private void moveUnitBy(int unit, int xOffset, int yOffset) {
+        int fromX = getX(unit);
+        int fromY = getY(unit);
+        zobrist ^= positionKey(unit);
+        units[unit * UNIT_SIZE + X] += xOffset;
+        units[unit * UNIT_SIZE + Y] += yOffset;
+        zobrist ^= positionKey(unit);
+        if (buckets != null) {
+            layout.grid.move(buckets, unit, fromX, fromY, getX(unit), getY(unit));
+        }
+        if (eval != null) {
+            refreshEvaluation(unit, fromX, fromY);
         }
+    }
 
-        this.isPlayerTurn = true;
+    private void attackUnit(int attacker, int attacked) {
+        if (isAlive(attacker) && isAlive(attacked)) {
+            zobrist ^= healthKey(attacked);
+            units[attacked * UNIT_SIZE + HP] -= layout.attackDamage[attacker];
+            zobrist ^= healthKey(attacked);
+            if (eval != null && !isAlive(attacked)) {
+                refreshEvaluation(attacked, getX(attacked), getY(attacked));
+            }
+        }
+    }
+
+    private int getCell(int unit) {
+        return getX(unit) + getY(unit) * layout.width;
     }
 
     /**
-     * This constructor uses the non-SEPIA representation of the game and is called for all
-     * except the first creation of a GameState
-     *
-     * @param gameState
+     * Steps a unit has to take around the trees to reach the other one
      */
-    public GameState(GameState gameState) {
-        this.board = new Board(gameState.board.width, gameState.board.height);
+    private double distance(int unit1, int unit2) {
+        return layout.fields.pathDistance(getCell(unit1), getCell(unit2)) - 1;
+    }
+
+    /**
+     * Whether a cell is within the unit's attack range. Like the original agent list, the attack lists and in
+     * range counts built on this do not check that the unit on the cell is still alive.
+     */
+    private boolean inReach(int unit, int x, int y) {
+        int[] reach = layout.reach[unit];
+        int dy = Math.abs(y - getY(unit));
+        return dy < reach.length && Math.abs(x - getX(unit)) <= reach[dy];
+    }
+
+    /**
+     * @param good Whether the side is the footmen
+     * @return Whether queries about the side go through the spatial index rather than a scan
+     */
+    private boolean isIndexed(boolean good) {
+        return buckets != null && lastOfSide(good) - firstOfSide(good) > SCAN_LIMIT;
+    }
 
-        for (MMAgent agent : gameState.board.getAllAgents()) {
-            this.board.addAgent(agent.getID(), agent.getXPosition(), agent.getYPosition(), agent.getHp(), agent.getPossibleHp(), agent.getAttackDamage(), agent.getAttackRange());
+    /**
+     * @return The number of enemies within the unit's attack range
+     */
+    private int countAttackable(int unit) {
+        boolean enemies = !isGood(unit);
+        int count = 0;
+        if (!isIndexed(enemies)) {
+            for (int other = firstOfSide(enemies); other < lastOfSide(enemies); other++) {
+                if (inReach(unit, getX(other), getY(other))) {
+                    count++;
+                }
+            }
+            return count;
         }
+        UnitGrid grid = layout.grid;
+        int range = layout.attackRange[unit];
+        for (int row = grid.firstRow(getY(unit) - range); row <= grid.lastRow(getY(unit) + range); row++) {
+            for (int column = grid.firstColumn(getX(unit) - range); column <= grid.lastColumn(getX(unit) + range);
+                 column++) {
+                for (int other = grid.first(buckets, enemies, column, row); other >= 0;
+                     other = grid.next(buckets, other)) {
+                    if (inReach(unit, getX(other), getY(other))) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
 
-        for (Resource resource : gameState.board.resources.values()) {
-            this.board.addResource(resource.getID(), resource.getX(), resource.getY());
+    /**
+     * @return Whether one side has no units left
+     */
+    boolean isGameOver() {
+        return !hasAliveGood() || !hasAliveBad();
+    }
+
+    private boolean hasAliveGood() {
+        for (int i = 0; i < layout.numGood; i++) {
+            if (isAlive(i)) {
+                return true;
+            }
         }
+        return false;
+    }
 
-        this.isPlayerTurn = !gameState.isPlayerTurn;
-        this.utilityCalculated = gameState.utilityCalculated;
-        this.utility = gameState.utility;
+    private boolean hasAliveBad() {
+        for (int i = layout.numGood; i < layout.numUnits; i++) {
+            if (isAlive(i)) {
+                return true;
+            }
+        }
+        return false;
     }
 
 
@@ -279,6 +629,9 @@ public class GameState {
      * current health and location relative to obstacles (resources) and enemies
      * <p>
      * For more information on each specific feature see comments on each ...Utility() function
+     * <p>
+     * Safe to call from several search threads at once. The value is built in a local and published through the
+     * volatile utilityCalculated flag, so a racing caller at worst computes the same value again.
      *
      * @return
      */
@@ -287,66 +640,82 @@ public class GameState {
             return this.utility;
         }
 
-        for (MMAgent agent : this.board.getAliveGoodAgents()) {
-            utility += (double) agent.getHp() / agent.getPossibleHp();
+        double utility = eval != null ? getUtilityFromCache() : getUtilityFromScratch();
+        if (checkEvaluation && eval != null) {
+            double expected = getUtilityFromScratch();
+            if (Double.compare(utility, expected) != 0) {
+                throw new IllegalStateException("Incremental utility " + utility + " does not match " + expected);
+            }
+        }
+
+        this.utility = utility;
+        this.utilityCalculated = true;
+        return utility;
+    }
+
+    /**
+     * @return Whether getUtility will return a stored value rather than compute one
+     */
+    boolean isUtilityCalculated() {
+        return utilityCalculated;
+    }
+
+    /**
+     * The original evaluation, recomputing every feature
+     */
+    private double getUtilityFromScratch() {
+        double utility = 0.0;
+        for (int i = 0; i < layout.numGood; i++) {
+            if (isAlive(i)) {
+                utility += (double) getHp(i) / layout.possibleHp[i];
+            }
         }
 
-        for (MMAgent agent : this.board.getAliveBadAgents()) {
-            utility += agent.getPossibleHp() - agent.getHp();
+        for (int i = layout.numGood; i < layout.numUnits; i++) {
+            if (isAlive(i)) {
+                utility += layout.possibleHp[i] - getHp(i);
+            }
         }
 
-        for (MMAgent agent : this.board.getAliveGoodAgents()) {
-            utility += this.board.findAttackableAgents(agent).size();
+        for (int i = 0; i < layout.numGood; i++) {
+            if (isAlive(i)) {
+                utility += countAttackable(i);
+            }
         }
 
 
         double percentageBlocked = blockedPercent();
         if (percentageBlocked > 0) {
-            this.utility += -1000 * percentageBlocked;
+            utility += -1000 * percentageBlocked;
         } else {
-            this.utility += -enemyDistance();
+            utility += -enemyDistance();
         }
 
-        if (this.board.getAliveGoodAgents().isEmpty()) {
-            this.utility = Double.NEGATIVE_INFINITY;
+        if (!hasAliveGood()) {
+            utility = Double.NEGATIVE_INFINITY;
         }
 
-        if (this.board.getAliveBadAgents().isEmpty()) {
-            this.utility = Double.POSITIVE_INFINITY;
+        if (!hasAliveBad()) {
+            utility = Double.POSITIVE_INFINITY;
         }
 
-        this.utilityCalculated = true;
-        return this.utility;
+        return utility;
     }
 
 
     private double blockedPercent() {
         int blocked = 0;
         int good = 0;
-        for (MMAgent agent : this.board.getAliveGoodAgents()) {
-            MMAgent bad = this.getClosestEnemy(agent);
-            int x = agent.getXPosition();
-            int y = agent.getYPosition();
+        for (int agent = 0; agent < layout.numGood; agent++) {
+            if (!isAlive(agent)) {
+                continue;
+            }
+            int bad = this.getClosestEnemy(agent);
 
-            if (bad == null)
+            if (bad < 0)
                 break;
 
-            while (x != bad.getXPosition() || y != bad.getYPosition()) {
-                if (this.board.isOnBoard(x, y) && this.board.isResource(x, y)) {
-                    blocked++;
-                }
-                if (x < bad.getXPosition()) {
-                    x++;
-                } else if (x > bad.getXPosition()) {
-                    x--;
-                }
-                if (y < bad.getYPosition()) {
-                    y++;
-                } else if (y > bad.getYPosition()) {
-                    y--;
-                }
-            }
-
+            blocked += countTreesBetween(agent, bad);
             good++;
         }
         if (good == 0) {
@@ -355,114 +724,1091 @@ public class GameState {
         return (double) blocked / good;
     }
 
+    /**
+     * Walks diagonally then straight from one unit towards another and counts the trees on the way
+     */
+    private int countTreesBetween(int from, int to) {
+        return layout.fields.treesOnLine(getCell(from), getCell(to));
+    }
+
     private double enemyDistance() {
         double utility = 0.0;
-        for (MMAgent agent : this.board.getAliveGoodAgents()) {
-            double value = Double.POSITIVE_INFINITY;
-            for (MMAgent badAgent : this.board.getAliveBadAgents()) {
-                value = Math.min(this.board.distance(agent, badAgent), value);
+        for (int agent = 0; agent < layout.numGood; agent++) {
+            if (!isAlive(agent)) {
+                continue;
             }
+            int badAgent = getClosestEnemy(agent);
+            double value = badAgent < 0 ? Double.POSITIVE_INFINITY : distance(agent, badAgent);
 
             utility += Math.max(value, 0);
         }
         return utility;
     }
 
-    private MMAgent getClosestEnemy(MMAgent goodAgent) {
-        MMAgent enemy = null;
-        for (MMAgent badAgent : this.board.getAliveBadAgents()) {
-            if (enemy == null) {
-                enemy = badAgent;
-            } else if (this.board.distance(goodAgent, badAgent) < this.board.distance(goodAgent, enemy)) {
-                enemy = badAgent;
-            }
-        }
-        return enemy;
+    /**
+     * @return The slot of the closest living archer or -1 if they are all dead
+     */
+    private int getClosestEnemy(int goodAgent) {
+        return closestEnemy(true, getX(goodAgent), getY(goodAgent));
     }
 
-
-    public List<GameStateChild> getChildren() {
-
-        ArrayList<MMAgent> agents = isPlayerTurn ? board.getAliveGoodAgents() : board.getAliveBadAgents();
-
-        ArrayList<ArrayList<Action>> actionsForEachAgent = new ArrayList<>();
-
-        for (MMAgent agent : agents) {
-            actionsForEachAgent.add(getAgentActions(agent));
+    /**
+     * The living enemy closest to a cell by path distance, the lowest slot among equally close ones. With the
+     * spatial index the buckets are visited in rings around the cell, stopping at the first ring whose cells are
+     * all more straight line steps away than the closest path found, since no path around the trees is shorter
+     * than the straight line steps. Enemies far across the map would have every bucket visited, so when the next
+     * ring would take the buckets visited past the number of units in the side the side is scanned instead.
+     *
+     * @param good Whether the enemies are the archers
+     * @return The enemy's slot or -1 if every enemy is dead
+     */
+    private int closestEnemy(boolean good, int x, int y) {
+        boolean enemies = !good;
+        int cell = x + y * layout.width;
+        if (!isIndexed(enemies)) {
+            return scanClosestEnemy(enemies, cell);
         }
-
-        List<Map<Integer, Action>> l = cartesianProductOf2(actionsForEachAgent);
-
-        List<GameStateChild> gscTwo = new ArrayList<GameStateChild>();
-        GameState gs = new GameState(this);
-        for (Map<Integer, Action> actionHashMap : l) {
-            for (Action action : actionHashMap.values()) {
-                gs.applyAction(action);
+        int closest = -1;
+        int best = Integer.MAX_VALUE;
+        // the buckets left to visit before a scan would have been quicker
+        int budget = lastOfSide(enemies) - firstOfSide(enemies);
+        UnitGrid grid = layout.grid;
+        int centerColumn = grid.column(x);
+        int centerRow = grid.row(y);
+        int rings = Math.max(Math.max(centerColumn, grid.columns() - 1 - centerColumn),
+                Math.max(centerRow, grid.rows() - 1 - centerRow));
+        for (int ring = 0; ring <= rings; ring++) {
+            if (ring > 0 && (ring - 1) * UnitGrid.SIZE + 1 > best) {
+                break;
+            }
+            if (8 * ring > budget) {
+                return scanClosestEnemy(enemies, cell);
+            }
+            for (int row = Math.max(centerRow - ring, 0); row <= Math.min(centerRow + ring, grid.rows() - 1); row++) {
+                // whole rows at the top and bottom of the ring, only its two ends in between
+                int step = row == centerRow - ring || row == centerRow + ring ? 1 : 2 * ring;
+                for (int column = centerColumn - ring; column <= centerColumn + ring; column += step) {
+                    if (column < 0 || column >= grid.columns()) {
+                        continue;
+                    }
+                    budget--;
+                    for (int enemy = grid.first(buckets, enemies, column, row); enemy >= 0;
+                         enemy = grid.next(buckets, enemy)) {
+                        if (isAlive(enemy)) {
+                            int distance = layout.fields.pathDistance(cell, getCell(enemy));
+                            if (distance < best || distance == best && enemy < closest) {
+                                closest = enemy;
+                                best = distance;
+                            }
+                        }
+                    }
+                }
             }
-            GameStateChild resultingChild = new GameStateChild(actionHashMap, gs);
-            gscTwo.add(resultingChild);
-            gs = new GameState(this);
         }
-        return gscTwo;
+        return closest;
     }
 
-    private static final Direction[] r = {Direction.NORTH, Direction.EAST, Direction.SOUTH, Direction.WEST};
-
-    private ArrayList<Action> getAgentActions(MMAgent agent) {
-        ArrayList<Action> actions = new ArrayList<Action>();
-        for (Direction direction : r) {
-            int nextX = agent.getXPosition() + direction.xComponent();
-            int nextY = agent.getYPosition() + direction.yComponent();
-            if (this.board.canMove(nextX, nextY)) {
-                actions.add(Action.createPrimitiveMove(agent.getID(), direction));
+    private int scanClosestEnemy(boolean enemies, int cell) {
+        int closest = -1;
+        int best = Integer.MAX_VALUE;
+        for (int enemy = firstOfSide(enemies); enemy < lastOfSide(enemies); enemy++) {
+            if (isAlive(enemy)) {
+                int distance = layout.fields.pathDistance(cell, getCell(enemy));
+                if (distance < best) {
+                    closest = enemy;
+                    best = distance;
+                }
             }
         }
-        for (Integer id : this.board.findAttackableAgents(agent)) {
-            actions.add(Action.createPrimitiveAttack(agent.getID(), id));
-        }
-        return actions;
+        return closest;
     }
 
 
-    private List<Map<Integer, Action>> cartesianProductOf2(ArrayList<ArrayList<Action>> actionList) {
-        ArrayList<Map<Integer, Action>> maps = new ArrayList<>();
+    /*
+     * Incremental evaluation.
+     *
+     * The expensive parts of the utility only depend on where the units are and which archers are alive, so eval
+     * keeps them per footman and applying an action only updates the entries the units it touched can change:
+     *
+     *   ATTACKABLE [footman]  archers within the footman's attack range (alive or not), as countAttackable
+     *   CLOSEST    [footman]  slot of the closest living archer as chosen by getClosestEnemy, or -1
+     *   DISTANCE   [footman]  distance() to CLOSEST
+     *   BLOCKED    [footman]  countTreesBetween the footman and CLOSEST
+     *
+     * A footman that moved has all four recomputed. An archer that moved only adjusts the counts of the footmen
+     * around its old and new cells; an archer that moved or died makes the footmen it was closest to look again,
+     * and for every other footman it can at most take over as the closest. Each entry is a function of the current
+     * positions and deaths only, so unmakeMove restores them by refreshing the restored units again.
+     * getUtilityFromCache adds the cached terms in exactly the order getUtilityFromScratch adds the computed ones,
+     * so both give bit for bit the same double.
+     */
 
-        if (actionList.size() == 0)
-            return maps;
+    private int evalSize() {
+        return 4 * layout.numGood;
+    }
 
-        List<Action> firstActions = actionList.get(0);
-        for (Action action : firstActions) {
-            if (actionList.size() > 1) {
-                List<Action> secondActions = actionList.get(1);
-                for (Action action2 : secondActions) {
-                    HashMap<Integer, Action> map = new HashMap<>();
+    private int attackableIndex(int good) {
+        return good;
+    }
 
-                    map.put(action2.getUnitId(), action2);
-                    map.put(action.getUnitId(), action);
+    private int closestIndex(int good) {
+        return layout.numGood + good;
+    }
 
-                    maps.add(map);
-                }
-            }
+    private int distanceIndex(int good) {
+        return 2 * layout.numGood + good;
+    }
 
-            Map<Integer, Action> map = new HashMap<>();
+    private int blockedIndex(int good) {
+        return 3 * layout.numGood + good;
+    }
 
-            map.put(action.getUnitId(), action);
+    /**
+     * Brings every cached entry involving a unit up to date after it moved, died or came back to life
+     *
+     * @param fromX The unit's x before the change, its current x if it did not move
+     * @param fromY The unit's y before the change
+     */
+    private void refreshEvaluation(int unit, int fromX, int fromY) {
+        if (isGood(unit)) {
+            eval[attackableIndex(unit)] = countAttackable(unit);
+            refreshClosest(unit);
+            return;
+        }
+        if (fromX != getX(unit) || fromY != getY(unit)) {
+            refreshInRange(unit, fromX, fromY);
+        }
+        boolean alive = isAlive(unit);
+        for (int good = 0; good < layout.numGood; good++) {
+            int closest = eval[closestIndex(good)];
+            if (closest == unit) {
+                refreshClosest(good);
+            } else if (alive) {
+                int distance = (int) distance(good, unit);
+                if (closest < 0 || distance < eval[distanceIndex(good)] ||
+                        distance == eval[distanceIndex(good)] && unit < closest) {
+                    setClosest(good, unit, distance);
+                }
+            }
+        }
+    }
 
-            maps.add(map);
+    /**
+     * Updates the in range counts of the footmen that could reach an archer before or after it moved
+     */
+    private void refreshInRange(int bad, int fromX, int fromY) {
+        int x = getX(bad);
+        int y = getY(bad);
+        if (!isIndexed(true)) {
+            for (int good = 0; good < layout.numGood; good++) {
+                refreshInRange(good, x, y, fromX, fromY);
+            }
+            return;
+        }
+        UnitGrid grid = layout.grid;
+        int range = layout.maxGoodRange;
+        for (int row = grid.firstRow(Math.min(y, fromY) - range); row <= grid.lastRow(Math.max(y, fromY) + range);
+             row++) {
+            for (int column = grid.firstColumn(Math.min(x, fromX) - range);
+                 column <= grid.lastColumn(Math.max(x, fromX) + range); column++) {
+                for (int good = grid.first(buckets, true, column, row); good >= 0; good = grid.next(buckets, good)) {
+                    refreshInRange(good, x, y, fromX, fromY);
+                }
+            }
         }
+    }
 
-        return maps;
+    private void refreshInRange(int good, int x, int y, int fromX, int fromY) {
+        eval[attackableIndex(good)] += (inReach(good, x, y) ? 1 : 0) - (inReach(good, fromX, fromY) ? 1 : 0);
     }
 
-    private void applyAction(Action action) {
-        if (action.getType() == ActionType.PRIMITIVEMOVE) {
-            Direction dir = ((DirectedAction) action).getDirection();
-            board.moveAgentBy(action.getUnitId(), dir.xComponent(), dir.yComponent());
+    private void refreshClosest(int good) {
+        int closest = getClosestEnemy(good);
+        if (closest < 0) {
+            eval[closestIndex(good)] = -1;
+            eval[blockedIndex(good)] = 0;
+        } else {
+            setClosest(good, closest, (int) distance(good, closest));
+        }
+    }
+
+    private void setClosest(int good, int bad, int distance) {
+        eval[closestIndex(good)] = bad;
+        eval[distanceIndex(good)] = distance;
+        eval[blockedIndex(good)] = countTreesBetween(good, bad);
+    }
+
+    private double getUtilityFromCache() {
+        double utility = 0.0;
+        for (int i = 0; i < layout.numGood; i++) {
+            if (isAlive(i)) {
+                utility += (double) getHp(i) / layout.possibleHp[i];
+            }
+        }
+
+        for (int i = layout.numGood; i < layout.numUnits; i++) {
+            if (isAlive(i)) {
+                utility += layout.possibleHp[i] - getHp(i);
+            }
+        }
+
+        for (int i = 0; i < layout.numGood; i++) {
+            if (isAlive(i)) {
+                utility += eval[attackableIndex(i)];
+            }
+        }
+
+        int blocked = 0;
+        int good = 0;
+        for (int i = 0; i < layout.numGood; i++) {
+            if (!isAlive(i)) {
+                continue;
+            }
+            if (eval[closestIndex(i)] < 0)
+                break;
+            blocked += eval[blockedIndex(i)];
+            good++;
+        }
+        double percentageBlocked = good == 0 ? 0 : (double) blocked / good;
+        if (percentageBlocked > 0) {
+            utility += -1000 * percentageBlocked;
+        } else {
+            double distance = 0.0;
+            for (int i = 0; i < layout.numGood; i++) {
+                if (isAlive(i)) {
+                    int closest = eval[closestIndex(i)];
+                    double value = closest < 0 ? Double.POSITIVE_INFINITY : eval[distanceIndex(i)];
+                    distance += Math.max(value, 0);
+                }
+            }
+            utility += -distance;
+        }
+
+        if (!hasAliveGood()) {
+            utility = Double.NEGATIVE_INFINITY;
+        }
+
+        if (!hasAliveBad()) {
+            utility = Double.POSITIVE_INFINITY;
+        }
+
+        return utility;
+    }
+
+
+    public List<GameStateChild> getChildren() {
+        long[] jointActions = getJointActions();
+        List<GameStateChild> children = new ArrayList<GameStateChild>(jointActions.length);
+        for (long jointAction : jointActions) {
+            children.add(new GameStateChild(toActionMap(jointAction), getChild(jointAction)));
+        }
+        return children;
+    }
+
+    /**
+     * @param jointAction The actions for the units of the player to move
+     * @return A new state with the joint action applied and the turn passed
+     */
+    public GameState getChild(Map<Integer, Action> jointAction) {
+        int first = firstOfSide(isPlayerTurn);
+        int[] actions = new int[getSideSize()];
+        for (Action action : jointAction.values()) {
+            actions[layout.indexOf(action.getUnitId()) - first] = unitActionOf(action);
+        }
+        return getChild(actions);
+    }
+
+    /**
+     * @param jointAction A JointAction of the player to move
+     */
+    GameState getChild(long jointAction) {
+        GameState child = new GameState(this);
+        child.applyJointAction(jointAction, isPlayerTurn);
+        return child;
+    }
+
+    /**
+     * getChild for a joint action given unit by unit, which unlike a JointAction holds any number of units. The
+     * factored search builds its joint actions this way.
+     *
+     * @param actions The JointAction unit action of every unit of the player to move, see getUnitActions
+     */
+    GameState getChild(int[] actions) {
+        GameState child = new GameState(this);
+        child.applyJointAction(actions, isPlayerTurn);
+        return child;
+    }
+
+    /**
+     * Cheap move descriptors: every child shares this state and only carries the joint action leading to it, so
+     * no states are copied. getChild builds the resulting state when it is actually needed.
+     *
+     * @return One child per joint action, each holding this state (not yet moved)
+     */
+    public List<GameStateChild> getChildrenInPlace() {
+        long[] jointActions = getJointActions();
+        List<GameStateChild> children = new ArrayList<GameStateChild>(jointActions.length);
+        for (long jointAction : jointActions) {
+            children.add(new GameStateChild(toActionMap(jointAction), this));
+        }
+        return children;
+    }
+
+    private int firstOfSide(boolean player) {
+        return player ? 0 : layout.numGood;
+    }
+
+    private int lastOfSide(boolean player) {
+        return player ? layout.numGood : layout.numUnits;
+    }
+
+    long[] getJointActions() {
+        int[] scratch = new int[jointActionScratchSize()];
+        int count = getJointActions(new long[0], scratch);
+        long[] jointActions = new long[count];
+        count = getJointActions(jointActions, scratch);
+        return count < jointActions.length ? Arrays.copyOf(jointActions, count) : jointActions;
+    }
+
+    /**
+     * @return The number of ints getJointActions needs as scratch space
+     */
+    int jointActionScratchSize() {
+        return layout.numUnits * (4 + layout.numUnits + 3);
+    }
+
+    /**
+     * Every joint action of the player to move, as JointActions. The first living unit always acts and every
+     * other living unit either acts or waits, so with two units this is each pair of actions followed by the
+     * first unit acting alone, as the original cartesianProductOf2 listed them. The product is walked like an
+     * odometer with the last unit turning fastest and written straight into the result. With illegal actions
+     * pruned, see setPruning, joint actions moving two units onto the same cell are left out.
+     *
+     * @param jointActions Receives the joint actions. Nothing is written if they might not all fit.
+     * @param scratch      At least jointActionScratchSize() ints
+     * @return The number of joint actions written, or if nothing was written because they might not all fit, the
+     * number they could take up
+     * @throws IllegalStateException Unless canListJointActions for the side to move
+     */
+    int getJointActions(long[] jointActions, int[] scratch) {
+        int first = firstOfSide(isPlayerTurn);
+        int numSide = lastOfSide(isPlayerTurn) - first;
+        if (!canListJointActions(isPlayerTurn)) {
+            throw new IllegalStateException("Joint actions hold at most " + JointAction.MAX_UNITS +
+                    " units per side and " + JointAction.MAX_SLOTS + " units in all");
+        }
+
+        // unit i's options are scratch[i * stride, i * stride + counts[i]), then come the counts and the digits
+        int stride = 4 + layout.numUnits + 1;
+        int[] options = scratch;
+        int counts = numSide * stride;
+        int digits = counts + numSide;
+        boolean hasLeader = false;
+        int total = 1;
+        for (int i = 0; i < numSide; i++) {
+            int unit = first + i;
+            int count = 0;
+            if (isAlive(unit)) {
+                count = addUnitActions(unit, options, i * stride, hasLeader);
+                hasLeader = true;
+            } else {
+                options[i * stride + count++] = JointAction.WAIT;
+            }
+            scratch[counts + i] = count;
+            scratch[digits + i] = 0;
+            total *= count;
+        }
+        if (!hasLeader || total == 0) {
+            return 0;
+        }
+        if (total > jointActions.length) {
+            return total;
+        }
+
+        long jointAction = JointAction.NONE;
+        for (int i = 0; i < numSide; i++) {
+            jointAction = JointAction.withUnitAction(jointAction, i, options[i * stride]);
+        }
+        int written = 0;
+        for (int n = 0; n < total; n++) {
+            if (!pruneIllegal || !collides(jointAction)) {
+                jointActions[written++] = jointAction;
+            }
+            for (int i = numSide - 1; i >= 0; i--) {
+                int digit = scratch[digits + i] + 1 == scratch[counts + i] ? 0 : scratch[digits + i] + 1;
+                scratch[digits + i] = digit;
+                jointAction = JointAction.withUnitAction(jointAction, i, options[i * stride + digit]);
+                if (digit != 0) {
+                    break;
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * collides for a joint action given unit by unit, see getChild(int[])
+     *
+     * @param actions Actions of the side's units before index
+     */
+    boolean collides(int[] actions, int index, int action) {
+        if (!pruneIllegal || !JointAction.isMove(action)) {
+            return false;
+        }
+        int first = firstOfSide(isPlayerTurn);
+        int cell = cellAfter(first + index, action);
+        for (int i = 0; i < index; i++) {
+            if (JointAction.isMove(actions[i]) && cellAfter(first + i, actions[i]) == cell) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean collides(long jointAction) {
+        for (int i = 1, n = JointAction.numUnits(jointAction); i < n; i++) {
+            if (collides(jointAction, i, JointAction.unitAction(jointAction, i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * With illegal actions pruned, whether a unit of the side to move would step onto the cell that one of the
+     * side's units before it steps onto in the joint action. SEPIA carries out only one of the two moves.
+     *
+     * @param jointAction Actions of the side's units before index, the rest waiting
+     * @param index       Index of the unit within the side to move
+     * @param action      The unit's action
+     */
+    boolean collides(long jointAction, int index, int action) {
+        if (!pruneIllegal || !JointAction.isMove(action)) {
+            return false;
+        }
+        int first = firstOfSide(isPlayerTurn);
+        int cell = cellAfter(first + index, action);
+        for (int i = 0; i < index; i++) {
+            int other = JointAction.unitAction(jointAction, i);
+            if (JointAction.isMove(other) && cellAfter(first + i, other) == cell) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int cellAfter(int unit, int move) {
+        Direction dir = JointAction.directionOf(move);
+        return getX(unit) + dir.xComponent() + (getY(unit) + dir.yComponent()) * layout.width;
+    }
+
+    /**
+     * @param player Whether to ask about the footmen or the archers
+     * @return Whether getJointActions can list the side's joint actions, which takes a side of at most
+     * JointAction.MAX_UNITS units and a state of at most JointAction.MAX_SLOTS. Larger sides can only be searched
+     * a unit at a time, see getUnitActions.
+     */
+    boolean canListJointActions(boolean player) {
+        return lastOfSide(player) - firstOfSide(player) <= JointAction.MAX_UNITS &&
+                layout.numUnits <= JointAction.MAX_SLOTS;
+    }
+
+    /**
+     * @return The number of units on the side to move, dead ones included
+     */
+    int getSideSize() {
+        return lastOfSide(isPlayerTurn) - firstOfSide(isPlayerTurn);
+    }
+
+    /**
+     * @param index Index of the unit within the side to move
+     */
+    boolean isSideUnitAlive(int index) {
+        return isAlive(firstOfSide(isPlayerTurn) + index);
+    }
+
+    /**
+     * @param slot A unit's slot, as in the target of an attack
+     * @return The unit's hp, at or below 0 once it is dead
+     */
+    int getUnitHp(int slot) {
+        return getHp(slot);
+    }
+
+    /*
+     * The map and the units' fixed stats, for building and probing a Tablebase and for a LeafBatch
+     */
+
+    int getWidth() {
+        return layout.width;
+    }
+
+    int getHeight() {
+        return layout.height;
+    }
+
+    /**
+     * @return Whether a unit can stand on the cell: it is on the map and holds no tree
+     */
+    boolean isOpen(int x, int y) {
+        return layout.canMove(x, y);
+    }
+
+    int getNumUnits() {
+        return layout.numUnits;
+    }
+
+    int getNumFootmen() {
+        return layout.numGood;
+    }
+
+    int getUnitX(int slot) {
+        return getX(slot);
+    }
+
+    int getUnitY(int slot) {
+        return getY(slot);
+    }
+
+    int getUnitMaxHp(int slot) {
+        return layout.possibleHp[slot];
+    }
+
+    int getUnitDamage(int slot) {
+        return layout.attackDamage[slot];
+    }
+
+    int getUnitRange(int slot) {
+        return layout.attackRange[slot];
+    }
+
+    DistanceFields getDistanceFields() {
+        return layout.fields;
+    }
+
+    /**
+     * @return Whether queries about units may go through the spatial index, which a LeafBatch does not use
+     */
+    boolean hasSpatialIndex() {
+        return buckets != null;
+    }
+
+    /**
+     * @return Whether evaluation=check asked for every utility to be compared with one computed from scratch
+     */
+    boolean isCheckingEvaluation() {
+        return checkEvaluation;
+    }
+
+    /**
+     * @return Whether actions SEPIA would not carry out are left out of the joint actions, see setPruning
+     */
+    boolean isPruningIllegal() {
+        return pruneIllegal;
+    }
+
+    /**
+     * @return Whether the unit could attack a unit dx, dy cells away, whatever the units' actual places
+     */
+    boolean canReach(int slot, int dx, int dy) {
+        int[] reach = layout.reach[slot];
+        dy = Math.abs(dy);
+        return dy < reach.length && Math.abs(dx) <= reach[dy];
+    }
+
+    /**
+     * @return The most actions getUnitActions can return
+     */
+    int getMaxUnitActions() {
+        return 4 + layout.numUnits + 1;
+    }
+
+    /**
+     * The actions one unit of the side to move can take on its own, as JointAction unit actions: its moves, its
+     * attacks and, if it may, waiting. Taken together every unit's actions give the same joint actions as
+     * getJointActions, since what a unit can do does not depend on what its side's other units do this turn,
+     * except that with illegal actions pruned the joint actions also leave out two units moving onto the same
+     * cell, see collides.
+     *
+     * @param index   Index of the unit within the side to move
+     * @param actions Receives the actions, room for at least 4 + the number of units + 1
+     * @param canWait Whether to offer waiting. The first living unit always acts.
+     * @return The number of actions
+     */
+    int getUnitActions(int index, int[] actions, boolean canWait) {
+        return addUnitActions(firstOfSide(isPlayerTurn) + index, actions, 0, canWait);
+    }
+
+    /**
+     * The SEPIA actions for a joint action of the player to move. Only needed for the move returned to SEPIA.
+     */
+    Map<Integer, Action> toActionMap(long jointAction) {
+        int first = firstOfSide(isPlayerTurn);
+        Map<Integer, Action> actions = new HashMap<Integer, Action>();
+        for (int i = 0, n = JointAction.numUnits(jointAction); i < n; i++) {
+            putAction(actions, first + i, JointAction.unitAction(jointAction, i));
+        }
+        return actions;
+    }
+
+    /**
+     * toActionMap for a joint action given unit by unit, see getChild(int[])
+     */
+    Map<Integer, Action> toActionMap(int[] unitActions) {
+        int first = firstOfSide(isPlayerTurn);
+        Map<Integer, Action> actions = new HashMap<Integer, Action>();
+        for (int i = 0, n = getSideSize(); i < n; i++) {
+            putAction(actions, first + i, unitActions[i]);
+        }
+        return actions;
+    }
+
+    private void putAction(Map<Integer, Action> actions, int unit, int action) {
+        int id = layout.ids[unit];
+        if (JointAction.isMove(action)) {
+            actions.put(id, Action.createPrimitiveMove(id, JointAction.directionOf(action)));
+        } else if (JointAction.isAttack(action)) {
+            actions.put(id, Action.createPrimitiveAttack(id, layout.ids[JointAction.targetOf(action)]));
+        }
+    }
+
+    /**
+     * Encodes SEPIA actions as a JointAction of the side the acting units are on, which need not be the side to
+     * move: children from getChildren hold the state after their action.
+     */
+    long jointActionOf(Map<Integer, Action> actions) {
+        long jointAction = JointAction.NONE;
+        for (Action action : actions.values()) {
+            int unit = layout.indexOf(action.getUnitId());
+            if (!canListJointActions(isGood(unit))) {
+                throw new IllegalStateException("Joint actions hold at most " + JointAction.MAX_UNITS +
+                        " units per side and " + JointAction.MAX_SLOTS + " units in all");
+            }
+            jointAction = JointAction.withUnitAction(jointAction, unit - firstOfSide(isGood(unit)),
+                    unitActionOf(action));
+        }
+        return jointAction;
+    }
+
+    /**
+     * @return The JointAction unit action for a SEPIA action, WAIT for any but a move or an attack
+     */
+    private int unitActionOf(Action action) {
+        if (action.getType() == ActionType.PRIMITIVEMOVE) {
+            return JointAction.moveOf(((DirectedAction) action).getDirection());
         } else if (action.getType() == ActionType.PRIMITIVEATTACK) {
-            TargetedAction ta = (TargetedAction) action;
-            MMAgent a1 = board.getAgent(ta.getUnitId());
-            MMAgent a2 = board.getAgent(ta.getTargetId());
-            board.attackAgent(a1, a2);
+            return JointAction.attack(layout.indexOf(((TargetedAction) action).getTargetId()));
+        }
+        return JointAction.WAIT;
+    }
+
+    /**
+     * @return This state, or a copy with the other player to move if the actions are not the player to move's.
+     * Lets a child from getChildren be ordered with the actions that led to it.
+     */
+    GameState withMover(Map<Integer, Action> actions) {
+        if (actions.isEmpty()) {
+            return this;
+        }
+        boolean player = isGood(layout.indexOf(actions.keySet().iterator().next()));
+        return player == isPlayerTurn ? this : new GameState(this, player);
+    }
+
+    /**
+     * Applies a joint action to this state in place and passes the turn. Everything it changes is remembered so
+     * unmakeMove can put it back.
+     *
+     * @param jointAction A JointAction of the player to move
+     */
+    void makeMove(long jointAction) {
+        if (undo == null) {
+            undo = new UndoStack();
+        }
+        undo.pushFrame(zobrist, utilityCalculated, utility);
+        int first = firstOfSide(isPlayerTurn);
+        for (int i = 0, n = JointAction.numUnits(jointAction); i < n; i++) {
+            makeUnitAction(first + i, JointAction.unitAction(jointAction, i));
+        }
+        isPlayerTurn = !isPlayerTurn;
+        zobrist ^= Zobrist.SIDE_TO_MOVE;
+        utilityCalculated = false;
+    }
+
+    /**
+     * makeMove for a joint action given unit by unit, see getChild(int[])
+     */
+    void makeMove(int[] actions) {
+        if (undo == null) {
+            undo = new UndoStack();
+        }
+        undo.pushFrame(zobrist, utilityCalculated, utility);
+        int first = firstOfSide(isPlayerTurn);
+        for (int i = 0, n = getSideSize(); i < n; i++) {
+            makeUnitAction(first + i, actions[i]);
+        }
+        isPlayerTurn = !isPlayerTurn;
+        zobrist ^= Zobrist.SIDE_TO_MOVE;
+        utilityCalculated = false;
+    }
+
+    private void makeUnitAction(int unit, int action) {
+        if (action == JointAction.WAIT) {
+            return;
+        }
+        int touched = JointAction.isAttack(action) ? JointAction.targetOf(action) : unit;
+        undo.pushUnit(touched, getX(touched), getY(touched), getHp(touched));
+        applyUnitAction(unit, action);
+    }
+
+    /**
+     * Applies a joint action in place and passes the turn like makeMove, without remembering how to undo it. For
+     * playouts, which only ever go forward.
+     *
+     * @param jointAction A JointAction of the player to move
+     */
+    void playMove(long jointAction) {
+        applyJointAction(jointAction, isPlayerTurn);
+        isPlayerTurn = !isPlayerTurn;
+        zobrist ^= Zobrist.SIDE_TO_MOVE;
+        utilityCalculated = false;
+    }
+
+    /**
+     * Reverts the most recent makeMove that has not been undone yet
+     */
+    public void unmakeMove() {
+        int[] saved = undo.units;
+        for (int i = undo.unitSize - 4; i >= undo.frameStart(); i -= 4) {
+            int unit = saved[i];
+            int fromX = getX(unit);
+            int fromY = getY(unit);
+            boolean wasAlive = isAlive(unit);
+            int offset = unit * UNIT_SIZE;
+            units[offset + X] = saved[i + 1];
+            units[offset + Y] = saved[i + 2];
+            units[offset + HP] = saved[i + 3];
+            if (buckets != null) {
+                layout.grid.move(buckets, unit, fromX, fromY, getX(unit), getY(unit));
+            }
+            if (eval != null && (fromX != getX(unit) || fromY != getY(unit) || wasAlive != isAlive(unit))) {
+                refreshEvaluation(unit, fromX, fromY);
+            }
+        }
+        isPlayerTurn = !isPlayerTurn;
+        zobrist = undo.zobrist();
+        utility = undo.utility();
+        utilityCalculated = undo.utilityCalculated();
+        undo.popFrame();
+    }
+
+    /**
+     * What makeMove changed, kept in flat arrays that grow to the search depth once and are then reused.
+     * Each frame is one makeMove; each unit record is (slot, x, y, hp) before the move.
+     */
+    private static final class UndoStack {
+        private int[] units = new int[64];
+        private int unitSize;
+        private int[] frameStarts = new int[16];
+        private long[] zobrists = new long[16];
+        private double[] utilities = new double[16];
+        private boolean[] calculated = new boolean[16];
+        private int frames;
+
+        private void pushFrame(long zobrist, boolean utilityCalculated, double utility) {
+            if (frames == frameStarts.length) {
+                int size = frames * 2;
+                frameStarts = Arrays.copyOf(frameStarts, size);
+                zobrists = Arrays.copyOf(zobrists, size);
+                utilities = Arrays.copyOf(utilities, size);
+                calculated = Arrays.copyOf(calculated, size);
+            }
+            frameStarts[frames] = unitSize;
+            zobrists[frames] = zobrist;
+            utilities[frames] = utility;
+            calculated[frames] = utilityCalculated;
+            frames++;
+        }
+
+        private void pushUnit(int unit, int x, int y, int hp) {
+            if (unitSize + 4 > units.length) {
+                units = Arrays.copyOf(units, units.length * 2);
+            }
+            units[unitSize++] = unit;
+            units[unitSize++] = x;
+            units[unitSize++] = y;
+            units[unitSize++] = hp;
+        }
+
+        private int frameStart() {
+            return frameStarts[frames - 1];
+        }
+
+        private long zobrist() {
+            return zobrists[frames - 1];
+        }
+
+        private double utility() {
+            return utilities[frames - 1];
+        }
+
+        private boolean utilityCalculated() {
+            return calculated[frames - 1];
+        }
+
+        private void popFrame() {
+            frames--;
+            unitSize = frameStarts[frames];
+        }
+    }
+
+    /**
+     * Scores a quiet joint action without applying it. Footmen want to close in on the archers and archers want
+     * to get away, so each moving unit scores the change in path distance to its nearest living enemy in the
+     * direction its side prefers.
+     *
+     * @param jointAction The actions for the units of the player to move
+     * @return Higher is better for the player to move
+     */
+    int getApproachScore(long jointAction) {
+        int score = 0;
+        for (int i = 0, n = JointAction.numUnits(jointAction); i < n; i++) {
+            score += getUnitApproachScore(i, JointAction.unitAction(jointAction, i));
+        }
+        return score;
+    }
+
+    /**
+     * getApproachScore of one unit's action
+     *
+     * @param index Index of the unit within the side to move
+     */
+    int getUnitApproachScore(int index, int action) {
+        if (!JointAction.isMove(action)) {
+            return 0;
+        }
+        int unit = firstOfSide(isPlayerTurn) + index;
+        Direction dir = JointAction.directionOf(action);
+        int before = nearestEnemyDistance(unit, getX(unit), getY(unit));
+        int after = nearestEnemyDistance(unit, getX(unit) + dir.xComponent(), getY(unit) + dir.yComponent());
+        return isGood(unit) ? before - after : after - before;
+    }
+
+    private int nearestEnemyDistance(int unit, int x, int y) {
+        int enemy = closestEnemy(isGood(unit), x, y);
+        return enemy < 0 ? 0 : layout.fields.pathDistance(x + y * layout.width, getCell(enemy));
+    }
+
+    /**
+     * Writes the unit's actions as addAgentActions does, followed by waiting if it may wait. With illegal actions
+     * pruned, see setPruning, leaves out
+     * <ul>
+     * <li>moves onto a cell a living unit stands on, which SEPIA does not carry out, two units swapping places
+     * included</li>
+     * <li>attacks on dead units, which do nothing</li>
+     * </ul>
+     * and with dominated actions pruned also
+     * <ul>
+     * <li>moving and waiting when the unit can kill an enemy that no other unit of its side has in reach</li>
+     * <li>a footman's moves that take it further from its nearest archer, by path distance, when it may wait, no
+     * archer is in its reach and another of its moves closes in onto a cell no archer has in reach</li>
+     * </ul>
+     * The latter are forward pruning: an action left out is one that should not beat its siblings, not one proven
+     * never to. A unit that must act keeps all its actions if pruning would leave it none.
+     *
+     * @return The number of actions written
+     */
+    private int addUnitActions(int unit, int[] options, int offset, boolean canWait) {
+        int count = addAgentActions(unit, options, offset);
+        if (pruneIllegal) {
+            count = pruneActions(unit, options, offset, count, canWait);
+            if (count == 0 && !canWait) {
+                return addAgentActions(unit, options, offset);
+            }
+        }
+        if (canWait && (!pruneDominated || !canKill(unit, options, offset, count))) {
+            options[offset + count++] = JointAction.WAIT;
+        }
+        return count;
+    }
+
+    /**
+     * Drops the actions addUnitActions leaves out from the count actions at offset, keeping the rest in order
+     *
+     * @return The number of actions kept
+     */
+    private int pruneActions(int unit, int[] options, int offset, int count, boolean canWait) {
+        int x = getX(unit);
+        int y = getY(unit);
+        boolean dominated = pruneDominated;
+        boolean kill = dominated && canKill(unit, options, offset, count);
+        boolean inReach = false;
+        for (int k = offset; k < offset + count; k++) {
+            inReach |= JointAction.isAttack(options[k]) && isAlive(JointAction.targetOf(options[k]));
+        }
+        // the footman's distance to its nearest archer, if one of its moves closes in
+        int closing = -1;
+        if (dominated && isGood(unit) && canWait && !inReach) {
+            int before = nearestEnemyDistance(unit, x, y);
+            for (int k = offset; k < offset + count && closing < 0; k++) {
+                if (JointAction.isMove(options[k])) {
+                    Direction dir = JointAction.directionOf(options[k]);
+                    int toX = x + dir.xComponent();
+                    int toY = y + dir.yComponent();
+                    if (!isOccupied(toX, toY) && !isUnderFire(true, toX, toY) &&
+                            nearestEnemyDistance(unit, toX, toY) < before) {
+                        closing = before;
+                    }
+                }
+            }
+        }
+
+        int kept = 0;
+        for (int k = offset; k < offset + count; k++) {
+            int action = options[k];
+            if (JointAction.isMove(action)) {
+                Direction dir = JointAction.directionOf(action);
+                int toX = x + dir.xComponent();
+                int toY = y + dir.yComponent();
+                if (kill || isOccupied(toX, toY) || closing >= 0 && nearestEnemyDistance(unit, toX, toY) > closing) {
+                    continue;
+                }
+            } else if (JointAction.isAttack(action) && !isAlive(JointAction.targetOf(action))) {
+                continue;
+            }
+            options[offset + kept++] = action;
+        }
+        return kept;
+    }
+
+    /**
+     * @return Whether one of the count actions at offset attacks a living enemy with no more hp than the unit's
+     * damage that no other unit of the unit's side has in reach
+     */
+    private boolean canKill(int unit, int[] options, int offset, int count) {
+        for (int k = offset; k < offset + count; k++) {
+            if (JointAction.isAttack(options[k])) {
+                int target = JointAction.targetOf(options[k]);
+                if (isAlive(target) && getHp(target) <= layout.attackDamage[unit] && isOnlyAttacker(unit, target)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isOnlyAttacker(int unit, int target) {
+        boolean good = isGood(unit);
+        for (int other = firstOfSide(good); other < lastOfSide(good); other++) {
+            if (other != unit && isAlive(other) && inReach(other, getX(target), getY(target))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param good Whether the cell is the footmen's to stand on
+     * @return Whether a living enemy has the cell within its attack range
+     */
+    private boolean isUnderFire(boolean good, int x, int y) {
+        boolean enemies = !good;
+        for (int other = firstOfSide(enemies); other < lastOfSide(enemies); other++) {
+            if (isAlive(other) && inReach(other, x, y)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Whether a living unit of either side stands on the cell
+     */
+    private boolean isOccupied(int x, int y) {
+        if (buckets == null) {
+            for (int unit = 0; unit < layout.numUnits; unit++) {
+                if (isAlive(unit) && getX(unit) == x && getY(unit) == y) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        UnitGrid grid = layout.grid;
+        for (int side = 0; side < 2; side++) {
+            for (int unit = grid.first(buckets, side == 0, grid.column(x), grid.row(y)); unit >= 0;
+                 unit = grid.next(buckets, unit)) {
+                if (isAlive(unit) && getX(unit) == x && getY(unit) == y) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the agent's moves (north, east, south, west) and then its attacks, in the order of the targets'
+     * slots, into options
+     *
+     * @return The number of actions written
+     */
+    private int addAgentActions(int agent, int[] options, int offset) {
+        int count = 0;
+        for (int direction = 0; direction < 4; direction++) {
+            Direction dir = JointAction.direction(direction);
+            if (layout.canMove(getX(agent) + dir.xComponent(), getY(agent) + dir.yComponent())) {
+                options[offset + count++] = JointAction.move(direction);
+            }
+        }
+        boolean enemies = !isGood(agent);
+        if (!isIndexed(enemies)) {
+            for (int other = firstOfSide(enemies); other < lastOfSide(enemies); other++) {
+                if (inReach(agent, getX(other), getY(other))) {
+                    options[offset + count++] = JointAction.attack(other);
+                }
+            }
+            return count;
+        }
+        int attacks = count;
+        UnitGrid grid = layout.grid;
+        int range = layout.attackRange[agent];
+        for (int row = grid.firstRow(getY(agent) - range); row <= grid.lastRow(getY(agent) + range); row++) {
+            for (int column = grid.firstColumn(getX(agent) - range); column <= grid.lastColumn(getX(agent) + range);
+                 column++) {
+                for (int other = grid.first(buckets, enemies, column, row); other >= 0;
+                     other = grid.next(buckets, other)) {
+                    if (inReach(agent, getX(other), getY(other))) {
+                        options[offset + count++] = JointAction.attack(other);
+                    }
+                }
+            }
+        }
+        // the buckets are not in slot order, the attack list is
+        Arrays.sort(options, offset + attacks, offset + count);
+        return count;
+    }
+
+    /**
+     * @param player Whether the joint action is the footmen's
+     */
+    private void applyJointAction(long jointAction, boolean player) {
+        int first = firstOfSide(player);
+        for (int i = 0, n = JointAction.numUnits(jointAction); i < n; i++) {
+            applyUnitAction(first + i, JointAction.unitAction(jointAction, i));
+        }
+    }
+
+    private void applyJointAction(int[] actions, boolean player) {
+        int first = firstOfSide(player);
+        for (int i = 0, n = lastOfSide(player) - first; i < n; i++) {
+            applyUnitAction(first + i, actions[i]);
+        }
+    }
+
+    private void applyUnitAction(int unit, int action) {
+        if (JointAction.isMove(action)) {
+            Direction dir = JointAction.directionOf(action);
+            moveUnitBy(unit, dir.xComponent(), dir.yComponent());
+        } else if (JointAction.isAttack(action)) {
+            attackUnit(unit, JointAction.targetOf(action));
         }
     }
 
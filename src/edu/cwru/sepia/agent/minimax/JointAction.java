@@ -0,0 +1,134 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.util.Direction;
+
+/**
+ * Joint actions packed into a long, so the search can generate, store and compare them without allocating.
+ * <p>
+ * Byte i holds the action of the i-th unit of the side to move, counting that side's units in slot order and
+ * including dead ones:
+ * <ul>
+ * <li>0: the unit waits</li>
+ * <li>1 to 4: the unit moves north, east, south or west</li>
+ * <li>5 + slot: the unit attacks the unit in that slot</li>
+ * </ul>
+ * A side can therefore have at most MAX_UNITS units and a state at most MAX_SLOTS. Every joint action moves at
+ * least one unit, so NONE (all units waiting) never stands for a real move. GameState converts a joint action to
+ * SEPIA actions with toActionMap.
+ * <p>
+ * The factored search, which chooses a side's actions one unit at a time, holds its joint actions as an int[] of
+ * these unit actions instead, which fits sides of any size, and packs them with of only for the transposition
+ * table and the move ordering, which keep the first MAX_UNITS units' actions. MinimaxAlphaBeta searches a side
+ * too large for a joint action that way whatever its options; GameState.getJointActions refuses to list them.
+ */
+final class JointAction {
+    static final long NONE = 0L;
+    static final int MAX_UNITS = 8;
+    static final int MAX_SLOTS = 256 - 5;
+
+    static final int WAIT = 0;
+    private static final int MOVE = 1;
+    private static final int ATTACK = 5;
+
+    private static final Direction[] DIRECTIONS = {Direction.NORTH, Direction.EAST, Direction.SOUTH, Direction.WEST};
+
+    private JointAction() {
+    }
+
+    static int move(int direction) {
+        return MOVE + direction;
+    }
+
+    static int attack(int target) {
+        return ATTACK + target;
+    }
+
+    static boolean isMove(int action) {
+        return action >= MOVE && action < ATTACK;
+    }
+
+    static boolean isAttack(int action) {
+        return action >= ATTACK;
+    }
+
+    /**
+     * @param direction 0 to 3, the direction of move(direction)
+     */
+    static Direction direction(int direction) {
+        return DIRECTIONS[direction];
+    }
+
+    static Direction directionOf(int action) {
+        return DIRECTIONS[action - MOVE];
+    }
+
+    /**
+     * @return The action moving in that direction, or -1 for a diagonal
+     */
+    static int moveOf(Direction direction) {
+        for (int i = 0; i < DIRECTIONS.length; i++) {
+            if (DIRECTIONS[i] == direction) {
+                return move(i);
+            }
+        }
+        return -1;
+    }
+
+    static int targetOf(int action) {
+        return action - ATTACK;
+    }
+
+    /**
+     * @param unit Index of the unit within the side to move
+     */
+    static int unitAction(long jointAction, int unit) {
+        return (int) (jointAction >>> (unit << 3)) & 0xFF;
+    }
+
+    static long withUnitAction(long jointAction, int unit, int action) {
+        int shift = unit << 3;
+        return jointAction & ~(0xFFL << shift) | (long) action << shift;
+    }
+
+    /**
+     * @param actions Unit actions, the i-th for the i-th unit of the side to move
+     * @param count   The number of units to pack, at most MAX_UNITS
+     */
+    static long of(int[] actions, int count) {
+        long jointAction = NONE;
+        for (int i = 0; i < count; i++) {
+            jointAction |= (long) actions[i] << (i << 3);
+        }
+        return jointAction;
+    }
+
+    /**
+     * @return One more than the index of the last unit that does something other than wait
+     */
+    static int numUnits(long jointAction) {
+        return (64 - Long.numberOfLeadingZeros(jointAction) + 7) >>> 3;
+    }
+
+    /**
+     * @return The number of units that do something other than wait
+     */
+    static int size(long jointAction) {
+        int size = 0;
+        for (; jointAction != 0; jointAction >>>= 8) {
+            if ((jointAction & 0xFF) != WAIT) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    static int countAttacks(long jointAction) {
+        int attacks = 0;
+        for (; jointAction != 0; jointAction >>>= 8) {
+            if ((jointAction & 0xFF) >= ATTACK) {
+                attacks++;
+            }
+        }
+        return attacks;
+    }
+}
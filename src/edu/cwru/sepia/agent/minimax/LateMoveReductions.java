@@ -0,0 +1,39 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * How many plys less maxVal and minVal search a quiet move that comes late in the move order, see the lmr
+ * options. The ordering puts the moves likely to cut off first, so a late quiet move is searched shallower with a
+ * null window first and searched again at full depth only if it turns out better than the best move so far.
+ * <p>
+ * The reduction of the move at index i of a node with d plys left is base + ln(d) * ln(i) / divisor plys rounded
+ * down, looked up in a table built once. It is 0 below minDepth and for the first fullMoves moves, and never
+ * leaves a child less than 1 ply.
+ */
+final class LateMoveReductions {
+    private static final int MAX_DEPTH = 64;
+    private static final int MAX_MOVES = 64;
+
+    private final int[][] table = new int[MAX_DEPTH][MAX_MOVES];
+
+    /**
+     * @param minDepth  Plys a node needs left for its moves to be reduced, at least 2
+     * @param fullMoves Moves searched at full depth before any is reduced, at least 1
+     */
+    LateMoveReductions(double base, double divisor, int minDepth, int fullMoves) {
+        for (int depth = minDepth; depth < MAX_DEPTH; depth++) {
+            for (int index = fullMoves; index < MAX_MOVES; index++) {
+                int reduction = (int) (base + Math.log(depth) * Math.log(index) / divisor);
+                table[depth][index] = Math.max(0, Math.min(reduction, depth - 2));
+            }
+        }
+    }
+
+    /**
+     * @param depth Plys left at the node
+     * @param index Position of the move in the search order
+     * @return Plys to take off the move's search
+     */
+    int reduction(int depth, int index) {
+        return table[Math.min(depth, MAX_DEPTH - 1)][Math.min(index, MAX_MOVES - 1)];
+    }
+}
@@ -0,0 +1,236 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.util.Direction;
+
+import java.util.Arrays;
+
+/**
+ * Evaluates every child of a state at once, for the nodes one ply above the leaves with batch=on. No child state
+ * is built: each child's x, y and hp of every unit are written into arrays holding that value for the whole batch,
+ * the parent's units copied and the child's joint action applied, and each term of the utility is then added for
+ * all children in one loop over the batch.
+ * <p>
+ * The terms are the ones getUtility adds up, added in the same order, so each value is bit for bit what getUtility
+ * returns for the child; with evaluation=check every value is compared against it. States with the spatial index
+ * are not batched, since the closest archer is found by scanning them all.
+ */
+public final class LeafBatch {
+    private int capacity;
+    private int size;
+    private long[] moves = new long[0];
+    private double[] utilities = new double[0];
+    /**
+     * Unit u of child c is at [u * capacity + c]
+     */
+    private int[] xs = new int[0];
+    private int[] ys = new int[0];
+    private int[] hps = new int[0];
+
+    /**
+     * Evaluates every joint action of the player to move
+     *
+     * @return The number of children, whose utilities getUtility returns in the order of getJointActions
+     */
+    public int evaluateChildren(GameState parent) {
+        clear();
+        for (long move : parent.getJointActions()) {
+            add(move);
+        }
+        evaluate(parent);
+        return size;
+    }
+
+    /**
+     * @param index A child's index in the batch
+     */
+    public double getUtility(int index) {
+        return utilities[index];
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    void add(long move) {
+        if (size == moves.length) {
+            moves = Arrays.copyOf(moves, Math.max(16, 2 * size));
+        }
+        moves[size++] = move;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long getMove(int index) {
+        return moves[index];
+    }
+
+    /**
+     * Computes the utility of the child each added joint action of the player to move leads to
+     *
+     * @throws IllegalArgumentException If the parent has the spatial index
+     */
+    void evaluate(GameState parent) {
+        if (parent.hasSpatialIndex()) {
+            throw new IllegalArgumentException("States with the spatial index are not batched");
+        }
+        int numUnits = parent.getNumUnits();
+        int numGood = parent.getNumFootmen();
+        if (capacity < size || xs.length < numUnits * capacity) {
+            capacity = Math.max(capacity, moves.length);
+            xs = new int[numUnits * capacity];
+            ys = new int[numUnits * capacity];
+            hps = new int[numUnits * capacity];
+            utilities = new double[capacity];
+        }
+        gather(parent, numUnits);
+
+        Arrays.fill(utilities, 0, size, 0.0);
+        for (int good = 0; good < numGood; good++) {
+            int base = good * capacity;
+            double maxHp = parent.getUnitMaxHp(good);
+            for (int c = 0; c < size; c++) {
+                int hp = hps[base + c];
+                if (hp > 0) {
+                    utilities[c] += hp / maxHp;
+                }
+            }
+        }
+        for (int bad = numGood; bad < numUnits; bad++) {
+            int base = bad * capacity;
+            int maxHp = parent.getUnitMaxHp(bad);
+            for (int c = 0; c < size; c++) {
+                int hp = hps[base + c];
+                if (hp > 0) {
+                    utilities[c] += maxHp - hp;
+                }
+            }
+        }
+        for (int good = 0; good < numGood; good++) {
+            addAttackable(parent, good, numGood, numUnits);
+        }
+        for (int c = 0; c < size; c++) {
+            utilities[c] = addPosition(parent, c, numGood, numUnits, utilities[c]);
+        }
+
+        if (parent.isCheckingEvaluation()) {
+            for (int c = 0; c < size; c++) {
+                double expected = parent.getChild(moves[c]).getUtility();
+                if (Double.compare(utilities[c], expected) != 0) {
+                    throw new IllegalStateException("Batched utility " + utilities[c] + " does not match " +
+                            expected);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the parent's units to every child and applies each child's joint action as GameState does
+     */
+    private void gather(GameState parent, int numUnits) {
+        for (int unit = 0; unit < numUnits; unit++) {
+            int base = unit * capacity;
+            Arrays.fill(xs, base, base + size, parent.getUnitX(unit));
+            Arrays.fill(ys, base, base + size, parent.getUnitY(unit));
+            Arrays.fill(hps, base, base + size, parent.getUnitHp(unit));
+        }
+        int first = parent.isPlayerTurn() ? 0 : parent.getNumFootmen();
+        for (int c = 0; c < size; c++) {
+            long move = moves[c];
+            for (int i = 0, n = JointAction.numUnits(move); i < n; i++) {
+                int action = JointAction.unitAction(move, i);
+                int unit = first + i;
+                if (JointAction.isMove(action)) {
+                    Direction dir = JointAction.directionOf(action);
+                    xs[unit * capacity + c] += dir.xComponent();
+                    ys[unit * capacity + c] += dir.yComponent();
+                } else if (JointAction.isAttack(action)) {
+                    int target = JointAction.targetOf(action) * capacity + c;
+                    if (hps[unit * capacity + c] > 0 && hps[target] > 0) {
+                        hps[target] -= parent.getUnitDamage(unit);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the number of archers, living or dead, that a living footman has in its reach
+     */
+    private void addAttackable(GameState parent, int good, int numGood, int numUnits) {
+        int base = good * capacity;
+        for (int c = 0; c < size; c++) {
+            if (hps[base + c] <= 0) {
+                continue;
+            }
+            int x = xs[base + c];
+            int y = ys[base + c];
+            int count = 0;
+            for (int bad = numGood; bad < numUnits; bad++) {
+                if (parent.canReach(good, xs[bad * capacity + c] - x, ys[bad * capacity + c] - y)) {
+                    count++;
+                }
+            }
+            utilities[c] += count;
+        }
+    }
+
+    /**
+     * Adds the trees between the footmen and their closest archers or, if there are none, the distance to them,
+     * and settles a child in which a side is wiped out
+     *
+     * @return The child's utility
+     */
+    private double addPosition(GameState parent, int c, int numGood, int numUnits, double utility) {
+        DistanceFields fields = parent.getDistanceFields();
+        int width = parent.getWidth();
+        int blocked = 0;
+        int counted = 0;
+        double distance = 0.0;
+        boolean goodAlive = false;
+        boolean badAlive = false;
+        for (int bad = numGood; bad < numUnits; bad++) {
+            badAlive |= hps[bad * capacity + c] > 0;
+        }
+        for (int good = 0; good < numGood; good++) {
+            if (hps[good * capacity + c] <= 0) {
+                continue;
+            }
+            goodAlive = true;
+            int cell = xs[good * capacity + c] + ys[good * capacity + c] * width;
+            int closestCell = -1;
+            int best = Integer.MAX_VALUE;
+            for (int bad = numGood; bad < numUnits; bad++) {
+                if (hps[bad * capacity + c] > 0) {
+                    int badCell = xs[bad * capacity + c] + ys[bad * capacity + c] * width;
+                    int path = fields.pathDistance(cell, badCell);
+                    if (path < best) {
+                        closestCell = badCell;
+                        best = path;
+                    }
+                }
+            }
+            if (closestCell < 0) {
+                break;
+            }
+            blocked += fields.treesOnLine(cell, closestCell);
+            counted++;
+            distance += Math.max((double) (best - 1), 0);
+        }
+
+        double percentageBlocked = counted == 0 ? 0 : (double) blocked / counted;
+        if (percentageBlocked > 0) {
+            utility += -1000 * percentageBlocked;
+        } else {
+            utility += -distance;
+        }
+        if (!goodAlive) {
+            utility = Double.NEGATIVE_INFINITY;
+        }
+        if (!badAlive) {
+            utility = Double.POSITIVE_INFINITY;
+        }
+        return utility;
+    }
+}
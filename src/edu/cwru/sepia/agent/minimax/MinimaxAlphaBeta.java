@@ -1,18 +1,109 @@
 package edu.cwru.sepia.agent.minimax;
 
 import edu.cwru.sepia.action.Action;
-import edu.cwru.sepia.action.ActionType;
 import edu.cwru.sepia.agent.Agent;
 import edu.cwru.sepia.environment.model.history.History;
 import edu.cwru.sepia.environment.model.state.State;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 public class MinimaxAlphaBeta extends Agent {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Value of a won position. getUtility returns infinity for a win, which cannot tell a quick win from a slow
+     * one and breaks null window and aspiration searches, so the search scores a win found n plys below the root
+     * as MATE - n instead and a loss as -(MATE - n).
+     */
+    public static final double MATE = 1e6;
+    private static final int MAX_MATE_PLYS = 1000;
 
     private final int numPlys;
+    private final SearchOptions options;
+    private final TranspositionTable table;
+    /**
+     * With threads=n, the pool searches run and split on, started by the first search after terminalStep shut it
+     * down, or null
+     */
+    private ForkJoinPool pool;
+    private final SearchStats stats;
+    private final MoveOrdering ordering;
+    private final SearchArena arena;
+    /**
+     * With engine=mcts, the playout search, or null
+     */
+    private final MonteCarloSearch monteCarlo;
+    private final PositionCache cache;
+    private final TranspositionTable.Entry cacheEntry = new TranspositionTable.Entry();
+    /**
+     * With lmr=on, how much to reduce late moves, or null
+     */
+    private final LateMoveReductions reductions;
+    /**
+     * With batch=on, the buffers the children of nodes one ply above the leaves are evaluated in, or null
+     */
+    private final LeafBatch leafBatch;
+    /**
+     * The best root moves and their scores from the last search of playTurn or alphaBetaSearch
+     */
+    private final RootMoves rootMoves;
+    /**
+     * The best root moves of the iterative deepening iteration in progress, kept once it finishes
+     */
+    private final RootMoves iterationMoves;
+    /**
+     * Whether maxVal at ply 0 is the root of the turn's search, whose moves it records in rootMoves, rather than
+     * a reply searched by the ponder thread
+     */
+    private boolean recordingRoot;
+    /**
+     * The endgame tables for the map being played with tablebase=dir, or null
+     */
+    private Tablebase tablebase;
+    private long tablebaseLayout;
+    private int rootDepth;
+    private long deadline;
+    private volatile boolean aborted;
+    private double previousScore = Double.NaN;
+    /**
+     * Depth of the deepest root search finished this turn, whose value is previousScore, or 0
+     */
+    private int searchedDepth;
+    private Thread ponderThread;
+    /**
+     * Keys of the replies the ponder thread finished searching to the full depth. Only read after the thread
+     * has been joined.
+     */
+    private final Set<Long> ponderedReplies = new HashSet<Long>();
+    /**
+     * With factored=on, the best complete joint action found by the searchUnits level that returned last, unit by
+     * unit as GameState.getChild(int[]) takes it, or null if it found none
+     */
+    private int[] lastBest;
+    /**
+     * With factored=on, the best joint action of the last root searchFactored finished, unit by unit, or null.
+     * The transposition table and rootMoves only hold joint actions that fit in a JointAction.
+     */
+    private int[] rootActions;
+    /**
+     * searchUnits' action lists, their ordering scores and the best joint action found under each level, one per
+     * ply and unit index
+     */
+    private int[][] unitActions = new int[0][];
+    private long[][] unitScores = new long[0][];
+    private int[][] unitBest = new int[0][];
+    /**
+     * searchUnits' joint action being built, one per ply
+     */
+    private int[][] partials = new int[0][];
 
     public MinimaxAlphaBeta(int playernum, String[] args)
     {
@@ -25,36 +116,337 @@ public class MinimaxAlphaBeta extends Agent {
         }
 
         numPlys = Integer.parseInt(args[0]);
+        options = new SearchOptions(args);
+        table = options.transpositionTable ? new TranspositionTable(options.ttBits) : null;
+        ordering = options.history ? new MoveOrdering() : null;
+        stats = options.stats || options.verbose ? new SearchStats() : null;
+        arena = options.arena ? new SearchArena(numPlys) : null;
+        monteCarlo = options.mcts ? new MonteCarloSearch(options) : null;
+        cache = options.cache ? new PositionCache() : null;
+        reductions = options.lmr ? new LateMoveReductions(options.lmrBase, options.lmrDivisor, options.lmrDepth,
+                options.lmrMoves) : null;
+        leafBatch = options.batch ? new LeafBatch() : null;
+        rootMoves = new RootMoves(options.multiPv);
+        iterationMoves = new RootMoves(options.multiPv);
     }
 
     @Override
     public Map<Integer, Action> initialStep(State.StateView newstate, History.HistoryView statehistory) {
+        if(stats != null) {
+            stats.startEpisode();
+        }
         return middleStep(newstate, statehistory);
     }
 
     @Override
     public Map<Integer, Action> middleStep(State.StateView newstate, History.HistoryView statehistory) {
-        GameStateChild bestChild = alphaBetaSearch(new GameStateChild(newstate),
-                numPlys,
-                Double.NEGATIVE_INFINITY,
-                Double.POSITIVE_INFINITY);
+        return playTurn(new GameState(newstate)).action;
+    }
 
-        return bestChild.action;
+    /**
+     * One turn from a position the footmen are to move in: searches it with the configured engine, starting a
+     * new search in the tables, and starts pondering if asked. middleStep is this on the state SEPIA hands over;
+     * the match runner in the benchmarks plays whole games through it without SEPIA.
+     *
+     * @param state The position, whose evaluation is set up from the options
+     * @return The child for the joint action chosen
+     */
+    public GameStateChild playTurn(GameState state) {
+        long start = System.nanoTime();
+        boolean pondered = stopPondering();
+        deadline = start + options.timeMs * 1000000L;
+        aborted = false;
+        searchedDepth = 0;
+        if(stats != null) {
+            stats.startTurn(numPlys);
+        }
+        // a ponder search already started a new search in the tables and filled them for this turn
+        if(ordering != null && !pondered) {
+            ordering.newSearch();
+        }
+        if(table != null) {
+            if(!pondered) {
+                table.newSearch();
+            }
+            table.resetCounters();
+        }
+
+        final GameStateChild root = new GameStateChild(null, state);
+        root.state.setEvaluation(options.incrementalEvaluation, options.checkEvaluation);
+        root.state.setPruning(options.pruneIllegal, options.pruneDominated);
+        rootMoves.clear(root.state);
+        if(options.tablebase != null && (tablebase == null || tablebaseLayout != root.state.getLayoutKey())) {
+            loadTablebase(root.state);
+        }
+        if(stats != null && pondered) {
+            stats.ponderResult(ponderedReplies.contains(root.state.getZobristHash()));
+        }
+        GameStateChild bestChild = cachedChild(root.state);
+        if(bestChild != null) {
+            if(options.verbose) {
+                System.out.println("position cache: searched to depth " + cacheEntry.depth + " before, value " +
+                        cacheEntry.value);
+            }
+        } else if(options.mcts && listsJointActions(root.state)) {
+            // playouts list joint actions, so games with larger sides are left to the minimax search
+            bestChild = monteCarloSearch(root, options.timeMs > 0 ? deadline : 0);
+        } else {
+            bestChild = invoke(ForkJoinTask.adapt(new Callable<GameStateChild>() {
+                @Override
+                public GameStateChild call() {
+                    return search(root);
+                }
+            }));
+        }
+        // the cache keeps JointActions, which larger sides do not fit in
+        if(cache != null && searchedDepth > 0 && root.state.canListJointActions(root.state.isPlayerTurn())) {
+            cache.store(root.state.getLayoutKey(), root.state.getZobristHash(), searchedDepth, previousScore,
+                    root.state.jointActionOf(bestChild.action));
+        }
+
+        if(stats != null) {
+            stats.endTurn(table);
+            if(options.verbose) {
+                System.out.println(stats.getTurnSummary(table));
+                for(int rank = 0; options.multiPv > 1 && rank < rootMoves.size(); rank++) {
+                    System.out.println(String.format("multiPv %d: %.2f %s", rank + 1, rootMoves.getScore(rank),
+                            root.state.toActionMap(rootMoves.getMove(rank))));
+                }
+            }
+        }
+
+        if(options.ponder) {
+            startPondering(bestChild.state);
+        }
+        return bestChild;
+    }
+
+    /**
+     * Keeps searching on a background thread while the archers move. Each of their replies to the action just
+     * played is searched to the full depth in turn, the most likely one first, filling the transposition table
+     * and move ordering tables that the next middleStep starts from. If the archers play a reply that was
+     * searched, the next search finds its result in the table straight away.
+     *
+     * @param afterMove The state after the footmen's action, with the archers to move
+     */
+    private void startPondering(final GameState afterMove) {
+        ponderedReplies.clear();
+        aborted = false;
+        deadline = Long.MAX_VALUE;
+        if(table != null) {
+            table.newSearch();
+        }
+        if(ordering != null) {
+            ordering.newSearch();
+        }
+        // started here rather than on the ponder thread, which terminalStep's shutdown could race with
+        startPool();
+        ponderThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                invoke(ForkJoinTask.adapt(new Runnable() {
+                    @Override
+                    public void run() {
+                        ponder(afterMove);
+                    }
+                }));
+            }
+        }, "minimax-ponder");
+        ponderThread.setDaemon(true);
+        ponderThread.start();
+    }
+
+    private void ponder(GameState afterMove) {
+        if(isFactored(afterMove)) {
+            // the replies are not listed one by one, so the whole position is searched one ply deeper instead, on a
+            // copy: inPlace=on changes the state it searches, and an aborted search leaves it changed
+            GameStateChild node = new GameStateChild(null, afterMove.copy());
+            for(int depth = 1; depth <= numPlys + 1 && !aborted; depth++) {
+                rootDepth = depth;
+                minVal(node, depth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+            }
+            return;
+        }
+        TranspositionTable.Entry entry = new TranspositionTable.Entry();
+        // the reply the last search expected is tried first, then the others in search order
+        boolean found = table != null && table.probe(afterMove.getZobristHash(), entry);
+        long expected = found ? entry.move : JointAction.NONE;
+        MoveGenerator replies = new MoveGenerator(afterMove, expected, ordering, 1);
+        for(long reply = replies.next(); reply != JointAction.NONE && !aborted; reply = replies.next()) {
+            GameStateChild node = new GameStateChild(null, afterMove.getChild(reply));
+            for(int depth = 1; depth <= numPlys && !aborted; depth++) {
+                rootDepth = depth;
+                maxVal(node, depth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+            }
+            if(!aborted) {
+                ponderedReplies.add(node.state.getZobristHash());
+            }
+        }
+    }
+
+    /**
+     * Cancels the ponder thread and waits for it to finish. An interrupted search stores nothing, so the tables
+     * only keep what was searched completely.
+     *
+     * @return Whether a ponder thread was running since the last turn
+     */
+    private boolean stopPondering() {
+        if(ponderThread == null) {
+            return false;
+        }
+        aborted = true;
+        boolean interrupted = false;
+        while(true) {
+            try {
+                ponderThread.join();
+                break;
+            } catch(InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        ponderThread = null;
+        aborted = false;
+        return true;
+    }
+
+    /**
+     * @return The best root moves with their scores from the last search of playTurn or alphaBetaSearch, best
+     * first. There are up to multiPv of them, none when the turn's move came from the position cache or from
+     * engine=mcts.
+     */
+    public RootMoves getRootMoves() {
+        return rootMoves;
+    }
+
+    /**
+     * @return The search statistics, or null unless the stats or verbose option is on
+     */
+    public SearchStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Empties the transposition table and the move ordering tables so that the next search starts cold, as on
+     * the first turn of a game
+     */
+    public void clearSearchHistory() {
+        if(table != null) {
+            table.clear();
+        }
+        if(ordering != null) {
+            ordering.clear();
+        }
+    }
+
+    /**
+     * Maps the tables for the map and units of the state from the tablebase directory. Without any, or if they
+     * cannot be read, the search carries on without them.
+     */
+    private void loadTablebase(GameState state) {
+        tablebase = null;
+        tablebaseLayout = state.getLayoutKey();
+        try {
+            Tablebase tables = new Tablebase(state);
+            boolean found = false;
+            for(int footmen = 1; footmen <= 2; footmen++) {
+                found |= tables.load(new File(options.tablebase), footmen);
+            }
+            if(found) {
+                tablebase = tables;
+            } else if(options.verbose) {
+                System.out.println("tablebase: no tables for this map in " + options.tablebase);
+            }
+        } catch(IllegalArgumentException | IOException e) {
+            System.err.println("Could not load the tablebase: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return The child for the move the position cache holds for the position, or null unless it is cached from
+     * a search at least as deep as this turn's would go
+     */
+    private GameStateChild cachedChild(GameState state) {
+        if(cache == null || !cache.probe(state.getLayoutKey(), state.getZobristHash(), cacheEntry) ||
+                cacheEntry.depth < numPlys || cacheEntry.move == JointAction.NONE) {
+            return null;
+        }
+        return toChild(state, cacheEntry.move);
+    }
+
+    private GameStateChild search(GameStateChild root) {
+        if(options.timeMs > 0) {
+            return iterativeDeepening(root);
+        }
+        if(stats != null) {
+            stats.startIteration(numPlys);
+        }
+        GameStateChild best;
+        if(options.pvs) {
+            best = aspirationSearch(root);
+        } else {
+            double value = searchRoot(root, numPlys, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+            previousScore = value;
+            searchedDepth = numPlys;
+            best = bestChild(root);
+        }
+        if(stats != null) {
+            stats.endIteration(numPlys, true);
+        }
+        return best;
     }
 
     @Override
     public void terminalStep(State.StateView newstate, History.HistoryView statehistory) {
-
+        stopPondering();
+        // savePlayerData comes next and may write to the file the cache was mapped from
+        if(cache != null) {
+            cache.detach();
+        }
+        if(stats != null) {
+            System.out.println(stats.getEpisodeSummary());
+        }
+        // the next episode's first search starts a new one
+        if(pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
     }
 
+    /**
+     * Writes the position cache with cache=on. Nothing is written otherwise.
+     */
     @Override
     public void savePlayerData(OutputStream os) {
-
+        if(cache == null) {
+            return;
+        }
+        try {
+            cache.save(os);
+        } catch(IOException e) {
+            System.err.println("Could not save the position cache: " + e.getMessage());
+        }
     }
 
+    /**
+     * Reads back a position cache written by savePlayerData with cache=on. The agent carries on with the
+     * positions it has if the data cannot be read.
+     */
     @Override
     public void loadPlayerData(InputStream is) {
-
+        if(cache == null) {
+            return;
+        }
+        try {
+            cache.load(is);
+            if(options.verbose) {
+                System.out.println("position cache: " + cache.size() + " positions");
+            }
+        } catch(IOException e) {
+            System.err.println("Could not load the position cache: " + e.getMessage());
+        }
     }
 
     /**
@@ -72,53 +464,1002 @@ public class MinimaxAlphaBeta extends Agent {
      * @param beta The current best value for the minimizing node from this node to the root
      * @return The best child of this node with updated values
      */
-    public GameStateChild alphaBetaSearch(GameStateChild node, int depth, double alpha, double beta)
+    public GameStateChild alphaBetaSearch(final GameStateChild node, final int depth, final double alpha,
+                                          final double beta)
     {
-        return getBestState(node, maxVal(node, depth, alpha, beta));
+        return invoke(ForkJoinTask.adapt(new Callable<GameStateChild>() {
+            @Override
+            public GameStateChild call() {
+                searchRoot(node, depth, alpha, beta);
+                return bestChild(node);
+            }
+        }));
+    }
+
+    /**
+     * The engine=mcts search, which playTurn runs with that engine: runs playouts from the node for timeMs or,
+     * without a time limit, for the configured number of playouts
+     *
+     * @return The child of the most visited joint action
+     * @throws IllegalStateException Unless the agent was made with engine=mcts
+     */
+    public GameStateChild monteCarloSearch(GameStateChild node) {
+        if(monteCarlo == null) {
+            throw new IllegalStateException("The playout search needs engine=mcts");
+        }
+        return monteCarloSearch(node, options.timeMs > 0 ? System.nanoTime() + options.timeMs * 1000000L : 0);
+    }
+
+    private GameStateChild monteCarloSearch(GameStateChild node, long deadline) {
+        long move = monteCarlo.search(node.state, deadline, startPool());
+        if(options.verbose) {
+            System.out.println(monteCarlo.getTurnSummary());
+        }
+        return toChild(node.state, move);
+    }
+
+    /**
+     * The value alphaBetaSearch finds for a node, without picking the child that has it
+     */
+    public double alphaBetaValue(final GameStateChild node, final int depth, final double alpha,
+                                 final double beta) {
+        return invoke(ForkJoinTask.adapt(new Callable<Double>() {
+            @Override
+            public Double call() {
+                rootDepth = depth;
+                return maxVal(node, depth, alpha, beta);
+            }
+        }));
+    }
+
+    /**
+     * Runs a search on the pool with threads=n, so that its split points fork onto the pool's workers rather than
+     * the common pool. Without threads, or from one of the pool's workers, it runs on the calling thread.
+     */
+    private <T> T invoke(ForkJoinTask<T> search) {
+        ForkJoinPool workers = startPool();
+        if(workers != null && ForkJoinTask.getPool() != workers) {
+            return workers.invoke(search);
+        }
+        return search.invoke();
+    }
+
+    /**
+     * @return The pool with threads=n, started if there is none yet, or null
+     */
+    private ForkJoinPool startPool() {
+        if(pool == null && options.threads > 1) {
+            pool = new ForkJoinPool(options.threads);
+        }
+        return pool;
+    }
+
+    /**
+     * maxVal on the root, which records the root's best moves and their scores in rootMoves as it searches them
+     */
+    private double searchRoot(GameStateChild root, int depth, double alpha, double beta) {
+        rootDepth = depth;
+        rootMoves.clear(root.state);
+        rootActions = null;
+        recordingRoot = true;
+        double value = maxVal(root, depth, alpha, beta);
+        recordingRoot = false;
+        return value;
+    }
+
+    /**
+     * @return The child for the best move the root search recorded
+     */
+    private GameStateChild bestChild(GameStateChild root) {
+        if(isFactored(root.state)) {
+            // kept whole in rootActions, and in rootMoves only if it fits in a JointAction
+            return toChild(root.state, rootActions);
+        }
+        if(rootMoves.size() == 0) {
+            // a root without moves, or an interrupted search
+            return toChild(root.state, new MoveGenerator(root.state, JointAction.NONE, ordering, 0).next());
+        }
+        return toChild(root.state, rootMoves.getMove(0));
+    }
+
+    /**
+     * Searches the root with a window centred on the previous turn's score. The score rarely moves much between
+     * turns, so the narrow window gives more cutoffs; if the true score falls outside it the root is searched
+     * again with that side of the window opened up.
+     */
+    private GameStateChild aspirationSearch(GameStateChild root) {
+        double alpha = Double.NEGATIVE_INFINITY;
+        double beta = Double.POSITIVE_INFINITY;
+        if(hasAspirationGuess(previousScore)) {
+            alpha = previousScore - options.aspiration;
+            beta = previousScore + options.aspiration;
+        }
+        double value = searchRoot(root, numPlys, alpha, beta);
+        while(value <= alpha && alpha != Double.NEGATIVE_INFINITY || value >= beta && beta != Double.POSITIVE_INFINITY) {
+            if(stats != null) {
+                stats.research();
+            }
+            if(value <= alpha) {
+                alpha = Double.NEGATIVE_INFINITY;
+            } else {
+                beta = Double.POSITIVE_INFINITY;
+            }
+            value = searchRoot(root, numPlys, alpha, beta);
+        }
+        previousScore = value;
+        searchedDepth = numPlys;
+        return bestChild(root);
+    }
+
+    private boolean hasAspirationGuess(double guess) {
+        // with multiPv the root's later moves need exact scores, which a narrow window does not give
+        return options.aspiration > 0 && options.multiPv == 1 && !Double.isNaN(guess) && !isMateScore(guess);
+    }
+
+    /**
+     * Anytime version of the search used when a time limit is given. Searches the root to depth 1, 2, ... up to
+     * numPlys until the deadline passes and returns the best child of the deepest search that finished.
+     *
+     * Each iteration searches the previous iteration's best child first. An iteration interrupted by the deadline
+     * is thrown away. With pvs on, each iteration uses an aspiration window around the previous iteration's score
+     * and the root's later children get null windows like every other node.
+     *
+     * @param node The state to search from
+     * @return The best child found
+     */
+    public GameStateChild iterativeDeepening(GameStateChild node) {
+        if(isFactored(node.state)) {
+            return factoredIterativeDeepening(node);
+        }
+        long[] children = new MoveGenerator(node.state, JointAction.NONE, ordering, 0).remaining();
+        rootMoves.clear(node.state);
+        if(children.length == 0) {
+            return bestChild(node);
+        }
+        long best = children[0];
+        double iterationScore = Double.NaN;
+        for(int depth = 1; depth <= numPlys; depth++) {
+            rootDepth = depth;
+            if(stats != null) {
+                stats.startIteration(depth);
+            }
+            double guess = depth == 1 ? previousScore : iterationScore;
+            double low = Double.NEGATIVE_INFINITY;
+            double high = Double.POSITIVE_INFINITY;
+            if(options.pvs && hasAspirationGuess(guess)) {
+                low = guess - options.aspiration;
+                high = guess + options.aspiration;
+            }
+            long iterationBest;
+            while(true) {
+                iterationBest = JointAction.NONE;
+                iterationMoves.clear(node.state);
+                double alpha = low;
+                for(long move : children) {
+                    double value;
+                    if(options.pvs && iterationMoves.isFull()) {
+                        value = searchMinChild(node.state, move, depth, alpha, Math.nextUp(alpha));
+                        if(!aborted && value > alpha && value < high) {
+                            if(stats != null) {
+                                stats.research();
+                            }
+                            value = searchMinChild(node.state, move, depth, alpha, high);
+                        }
+                    } else {
+                        value = searchMinChild(node.state, move, depth, alpha, high);
+                    }
+                    if(aborted) {
+                        if(stats != null) {
+                            stats.endIteration(depth, false);
+                        }
+                        return toChild(node.state, best);
+                    }
+                    iterationMoves.add(move, value);
+                    if(iterationBest == JointAction.NONE || value > iterationScore) {
+                        iterationScore = value;
+                        iterationBest = move;
+                    }
+                    // the same as iterationScore unless multiPv keeps more than the best move
+                    alpha = Math.max(alpha, iterationMoves.bound());
+                    if(iterationScore >= high) {
+                        break;
+                    }
+                }
+                if(iterationScore <= low && low != Double.NEGATIVE_INFINITY) {
+                    low = Double.NEGATIVE_INFINITY;
+                } else if(iterationScore >= high && high != Double.POSITIVE_INFINITY) {
+                    high = Double.POSITIVE_INFINITY;
+                } else {
+                    break;
+                }
+                if(stats != null) {
+                    stats.research();
+                }
+            }
+            best = iterationBest;
+            rootMoves.copyFrom(iterationMoves);
+            if(stats != null) {
+                stats.endIteration(depth, true);
+            }
+            previousScore = iterationScore;
+            searchedDepth = depth;
+            moveToFront(children, best);
+            if(iterationScore >= MATE - MAX_MATE_PLYS || System.nanoTime() > deadline) {
+                break;
+            }
+        }
+        return toChild(node.state, best);
+    }
+
+    /**
+     * The one place a JointAction of the search becomes SEPIA actions: the move middleStep returns
+     */
+    private static GameStateChild toChild(GameState parent, long move) {
+        return new GameStateChild(parent.toActionMap(move), parent.getChild(move));
+    }
+
+    /**
+     * toChild for the factored search's root move, or for no move if it is null
+     */
+    private static GameStateChild toChild(GameState parent, int[] actions) {
+        if(actions == null) {
+            return toChild(parent, JointAction.NONE);
+        }
+        return new GameStateChild(parent.toActionMap(actions), parent.getChild(actions));
+    }
+
+    /**
+     * Records the factored root's best move in rootMoves, if its side fits in a JointAction
+     */
+    private void addFactoredRootMove(GameState root, double value) {
+        int numUnits = root.getSideSize();
+        if(rootActions != null && numUnits <= JointAction.MAX_UNITS) {
+            rootMoves.add(JointAction.of(rootActions, numUnits), value);
+        }
+    }
+
+    /**
+     * iterativeDeepening with factored=on. Each iteration searches the root like any other node, which tries the
+     * previous iteration's best move first through the transposition table.
+     */
+    private GameStateChild factoredIterativeDeepening(GameStateChild node) {
+        int[] best = null;
+        rootActions = null;
+        for(int depth = 1; depth <= numPlys; depth++) {
+            rootDepth = depth;
+            if(stats != null) {
+                stats.startIteration(depth);
+            }
+            double value = maxVal(node, depth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+            if(aborted) {
+                if(stats != null) {
+                    stats.endIteration(depth, false);
+                }
+                break;
+            }
+            best = rootActions;
+            rootMoves.clear(node.state);
+            addFactoredRootMove(node.state, value);
+            if(stats != null) {
+                stats.endIteration(depth, true);
+            }
+            previousScore = value;
+            searchedDepth = depth;
+            if(value >= MATE - MAX_MATE_PLYS || System.nanoTime() > deadline) {
+                break;
+            }
+        }
+        return toChild(node.state, best);
+    }
+
+    private boolean isOutOfTime() {
+        if(!aborted && options.timeMs > 0 && System.nanoTime() > deadline) {
+            aborted = true;
+        }
+        return aborted;
     }
 
     public double maxVal(GameStateChild node, int depth, double alpha, double beta) {
-        if(depth == 0) {
-            return node.state.getUtility();
+        int ply = rootDepth - depth;
+        boolean root = ply == 0 && recordingRoot;
+        // the root is left alone, as its best move has to be found
+        if(tablebase != null && ply > 0) {
+            int distance = tablebase.probe(node.state);
+            if(distance > 0) {
+                if(stats != null) {
+                    stats.tablebaseHit();
+                }
+                return MATE - (ply + distance);
+            }
+        }
+        if(depth == 0 || node.state.isGameOver()) {
+            if(stats != null) {
+                stats.leaf(!node.state.isUtilityCalculated());
+            }
+            return evaluate(node.state, ply);
+        }
+        if(stats != null) {
+            stats.node();
+        }
+        if(isOutOfTime()) {
+            return 0;
+        }
+        long key = node.state.getZobristHash();
+        long hashMove = JointAction.NONE;
+        if(table != null) {
+            TranspositionTable.Entry entry = arena != null ? arena.entry() : new TranspositionTable.Entry();
+            if(table.probe(key, entry)) {
+                hashMove = entry.move;
+                double value = fromTable(entry.value, ply);
+                // the entry only holds the best move's score, and multiPv needs the root's next best too. The
+                // factored search only keeps the root's move whole by searching it, see searchFactored.
+                if(entry.depth >= depth && isCutoff(entry.bound, value, alpha, beta) &&
+                        !(root && options.multiPv > 1) && !(ply == 0 && isFactored(node.state))) {
+                    if(stats != null) {
+                        stats.tableCutoff();
+                    }
+                    if(root && hashMove != JointAction.NONE) {
+                        rootMoves.add(hashMove, value);
+                    }
+                    return value;
+                }
+            }
+        }
+        if(isFactored(node.state)) {
+            double value = searchFactored(node.state, key, depth, alpha, beta, hashMove);
+            if(root && !aborted) {
+                addFactoredRootMove(node.state, value);
+            }
+            return value;
+        }
+        if(!root && canBatchLeaves(node.state, depth)) {
+            return searchLeaves(node.state, key, alpha, beta, hashMove, true);
         }
+
+        double alphaOrig = alpha;
         double maxVal = Double.NEGATIVE_INFINITY;
-        List<GameStateChild> children = orderChildrenWithHeuristics(node.state.getChildren());
-        for(int i = 0; i < children.size(); i++) {
-            maxVal = Math.max(maxVal, minVal(children.get(i), depth - 1, alpha, beta));
+        long bestMove = JointAction.NONE;
+        MoveGenerator moves = arena != null ? arena.moves(ply, node.state, hashMove, ordering) :
+                new MoveGenerator(node.state, hashMove, ordering, ply);
+        if(stats != null) {
+            stats.childrenGenerated(moves.size());
+        }
+        long move;
+        for(int i = 0; (move = moves.next()) != JointAction.NONE; i++) {
+            // with multiPv the root has to see every move's score itself
+            if(i == 1 && canSplit(node.state, depth, moves.size()) && !(root && options.multiPv > 1)) {
+                SplitPoint split = new SplitPoint(true, alpha, beta, maxVal, bestMove);
+                searchSiblings(node.state, move, moves.remaining(), depth, split);
+                maxVal = split.getValue();
+                bestMove = split.getMove();
+                if(split.isCutoff()) {
+                    recordCutoff(node.state, bestMove, i, depth);
+                }
+                if(root) {
+                    rootMoves.add(bestMove, maxVal);
+                }
+                break;
+            }
+            double value = 0;
+            int reduction = lateMoveReduction(move, i, depth, ply);
+            if(reduction > 0) {
+                // a null window at reduced depth, searched again in full if the move beats alpha after all
+                value = searchMinChild(node.state, move, depth, reduction, alpha, Math.nextUp(alpha));
+                if(!aborted && value > alpha) {
+                    if(stats != null) {
+                        stats.research();
+                    }
+                    reduction = 0;
+                }
+            }
+            // a late move that the reduced search showed to be no better is left at that
+            if(reduction == 0) {
+                if(options.pvs && bestMove != JointAction.NONE && (!root || rootMoves.isFull())) {
+                    // only prove the move is no better than alpha and search it properly if it is not. No double
+                    // lies strictly inside the null window, so the result is either at most alpha or a lower bound
+                    // above it.
+                    value = searchMinChild(node.state, move, depth, alpha, Math.nextUp(alpha));
+                    if(!aborted && value > alpha && value < beta) {
+                        if(stats != null) {
+                            stats.research();
+                        }
+                        value = searchMinChild(node.state, move, depth, alpha, beta);
+                    }
+                } else {
+                    value = searchMinChild(node.state, move, depth, alpha, beta);
+                }
+            }
+            if(aborted) {
+                return 0;
+            }
+            if(root) {
+                rootMoves.add(move, value);
+            }
+            if(bestMove == JointAction.NONE || value > maxVal) {
+                maxVal = value;
+                bestMove = move;
+            }
             if(beta <= maxVal) {
-                return maxVal;
+                recordCutoff(node.state, move, i, depth);
+                break;
             }
-            alpha = Math.max(alpha, maxVal);
+            // with multiPv, only moves worse than all the ones kept can be cut off
+            alpha = Math.max(alpha, root ? rootMoves.bound() : maxVal);
+        }
+        if(aborted) {
+            return 0;
+        }
+        if(bestMove == JointAction.NONE) {
+            // no legal moves
+            return evaluate(node.state, ply);
         }
+        storeResult(key, depth, ply, maxVal, alphaOrig, beta, bestMove);
         return maxVal;
     }
 
     public double minVal(GameStateChild node, int depth, double alpha, double beta) {
-        if(depth == 0) {
-            return node.state.getUtility();
+        int ply = rootDepth - depth;
+        // the root is left alone, as its best move has to be found
+        if(tablebase != null && ply > 0) {
+            int distance = tablebase.probe(node.state);
+            if(distance > 0) {
+                if(stats != null) {
+                    stats.tablebaseHit();
+                }
+                return MATE - (ply + distance);
+            }
+        }
+        if(depth == 0 || node.state.isGameOver()) {
+            if(stats != null) {
+                stats.leaf(!node.state.isUtilityCalculated());
+            }
+            return evaluate(node.state, ply);
+        }
+        if(stats != null) {
+            stats.node();
+        }
+        if(isOutOfTime()) {
+            return 0;
+        }
+        long key = node.state.getZobristHash();
+        long hashMove = JointAction.NONE;
+        if(table != null) {
+            TranspositionTable.Entry entry = arena != null ? arena.entry() : new TranspositionTable.Entry();
+            if(table.probe(key, entry)) {
+                hashMove = entry.move;
+                double value = fromTable(entry.value, ply);
+                if(entry.depth >= depth && isCutoff(entry.bound, value, alpha, beta)) {
+                    if(stats != null) {
+                        stats.tableCutoff();
+                    }
+                    return value;
+                }
+            }
+        }
+        if(isFactored(node.state)) {
+            return searchFactored(node.state, key, depth, alpha, beta, hashMove);
         }
+        if(canBatchLeaves(node.state, depth)) {
+            return searchLeaves(node.state, key, alpha, beta, hashMove, false);
+        }
+
+        double betaOrig = beta;
         double minVal = Double.POSITIVE_INFINITY;
-        List<GameStateChild> children = orderChildrenWithHeuristics(node.state.getChildren());
-        for(int i = 0; i < children.size(); i++) {
-            minVal = Math.min(minVal, maxVal(children.get(i), depth - 1, alpha, beta));
+        long bestMove = JointAction.NONE;
+        MoveGenerator moves = arena != null ? arena.moves(ply, node.state, hashMove, ordering) :
+                new MoveGenerator(node.state, hashMove, ordering, ply);
+        if(stats != null) {
+            stats.childrenGenerated(moves.size());
+        }
+        long move;
+        for(int i = 0; (move = moves.next()) != JointAction.NONE; i++) {
+            if(i == 1 && canSplit(node.state, depth, moves.size())) {
+                SplitPoint split = new SplitPoint(false, alpha, beta, minVal, bestMove);
+                searchSiblings(node.state, move, moves.remaining(), depth, split);
+                minVal = split.getValue();
+                bestMove = split.getMove();
+                if(split.isCutoff()) {
+                    recordCutoff(node.state, bestMove, i, depth);
+                }
+                break;
+            }
+            double value = 0;
+            int reduction = lateMoveReduction(move, i, depth, ply);
+            if(reduction > 0) {
+                // a null window at reduced depth, searched again in full if the move beats beta after all
+                value = searchMaxChild(node.state, move, depth, reduction, Math.nextDown(beta), beta);
+                if(!aborted && value < beta) {
+                    if(stats != null) {
+                        stats.research();
+                    }
+                    reduction = 0;
+                }
+            }
+            // a late move that the reduced search showed to be no better is left at that
+            if(reduction == 0) {
+                if(options.pvs && bestMove != JointAction.NONE) {
+                    value = searchMaxChild(node.state, move, depth, Math.nextDown(beta), beta);
+                    if(!aborted && value < beta && value > alpha) {
+                        if(stats != null) {
+                            stats.research();
+                        }
+                        value = searchMaxChild(node.state, move, depth, alpha, beta);
+                    }
+                } else {
+                    value = searchMaxChild(node.state, move, depth, alpha, beta);
+                }
+            }
+            if(aborted) {
+                return 0;
+            }
+            if(bestMove == JointAction.NONE || value < minVal) {
+                minVal = value;
+                bestMove = move;
+            }
             if(alpha >= minVal) {
-                return minVal;
+                recordCutoff(node.state, move, i, depth);
+                break;
             }
             beta = Math.min(beta, minVal);
         }
+        if(aborted) {
+            return 0;
+        }
+        if(bestMove == JointAction.NONE) {
+            return evaluate(node.state, ply);
+        }
+        storeResult(key, depth, ply, minVal, alpha, betaOrig, bestMove);
         return minVal;
     }
 
-    private GameStateChild getBestState(GameStateChild node, double value) {
-        List<GameStateChild> children = node.state.getChildren();
-        for(int i = 0; i < children.size(); i++) {
-            if(value == children.get(i).state.getUtility()) {
-                return children.get(i);
+    /**
+     * @return Whether the children of a node are leaves to evaluate with the LeafBatch. Children probed in the
+     * tablebase and states with the spatial index are left to the search one by one.
+     */
+    private boolean canBatchLeaves(GameState state, int depth) {
+        return leafBatch != null && depth == 1 && tablebase == null && !state.hasSpatialIndex();
+    }
+
+    /**
+     * The rest of a maxVal or minVal node one ply above the leaves with batch=on, once the transposition table had
+     * no answer. Every child is evaluated at once and the values are then taken in the order the node would have
+     * searched the children, so the value, best move and cutoff are the ones searching them one by one gives.
+     */
+    private double searchLeaves(GameState state, long key, double alpha, double beta, long hashMove,
+                                boolean maximizing) {
+        int ply = rootDepth - 1;
+        MoveGenerator moves = arena != null ? arena.moves(ply, state, hashMove, ordering) :
+                new MoveGenerator(state, hashMove, ordering, ply);
+        if(stats != null) {
+            stats.childrenGenerated(moves.size());
+        }
+        leafBatch.clear();
+        for(long move = moves.next(); move != JointAction.NONE; move = moves.next()) {
+            leafBatch.add(move);
+        }
+        if(leafBatch.size() == 0) {
+            // no legal moves
+            return evaluate(state, ply);
+        }
+        leafBatch.evaluate(state);
+        if(stats != null) {
+            for(int i = 0; i < leafBatch.size(); i++) {
+                stats.leaf(true);
+            }
+        }
+
+        double alphaOrig = alpha;
+        double betaOrig = beta;
+        double best = maximizing ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        long bestMove = JointAction.NONE;
+        for(int i = 0; i < leafBatch.size(); i++) {
+            long move = leafBatch.getMove(i);
+            double value = toScore(leafBatch.getUtility(i), ply + 1);
+            if(bestMove == JointAction.NONE || (maximizing ? value > best : value < best)) {
+                best = value;
+                bestMove = move;
+            }
+            if(maximizing ? beta <= best : alpha >= best) {
+                recordCutoff(state, move, i, 1);
+                break;
+            }
+            if(maximizing) {
+                alpha = Math.max(alpha, best);
+            } else {
+                beta = Math.min(beta, best);
+            }
+        }
+        storeResult(key, 1, ply, best, alphaOrig, betaOrig, bestMove);
+        return best;
+    }
+
+    /**
+     * @param index Position of the move in the search order
+     * @return Plys to take off the search of the move, 0 unless lmr is on and it is a late quiet move other than a
+     * killer. The root's moves are all searched in full.
+     */
+    private int lateMoveReduction(long move, int index, int depth, int ply) {
+        if(reductions == null || ply == 0 || JointAction.countAttacks(move) > 0 ||
+                ordering != null && ordering.killerRank(move, ply) > 0) {
+            return 0;
+        }
+        int reduction = reductions.reduction(depth, index);
+        if(reduction > 0 && stats != null) {
+            stats.reduction();
+        }
+        return reduction;
+    }
+
+    /**
+     * @param index Position of the move that caused the cutoff in the search order
+     */
+    private void recordCutoff(GameState state, long move, int index, int depth) {
+        if(stats != null) {
+            stats.cutoff(index);
+        }
+        if(ordering != null && JointAction.countAttacks(move) == 0) {
+            ordering.recordCutoff(move, state.isPlayerTurn(), rootDepth - depth, depth);
+        }
+    }
+
+    /**
+     * The rest of a maxVal or minVal node with factored=on, once the transposition table had no answer
+     */
+    private double searchFactored(GameState state, long key, int depth, double alpha, double beta, long hashMove) {
+        int ply = rootDepth - depth;
+        double value = searchUnits(state, depth, 0, false, hashMove, alpha, beta);
+        int[] best = lastBest;
+        if(aborted) {
+            return 0;
+        }
+        if(best == null) {
+            // no legal moves
+            return evaluate(state, ply);
+        }
+        int numUnits = state.getSideSize();
+        // of a larger side, the first units' actions are kept as a hint
+        storeResult(key, depth, ply, value, alpha, beta,
+                JointAction.of(best, Math.min(numUnits, JointAction.MAX_UNITS)));
+        if(ply == 0) {
+            rootActions = Arrays.copyOf(best, numUnits);
+        }
+        return value;
+    }
+
+    /**
+     * Factored expansion: each level chooses the action of one unit of the side to move, the index-th, after the
+     * earlier units' actions collected in the ply's partial joint action. These partial joint action nodes are
+     * neither built nor evaluated; once every unit has an action, the whole joint action is searched like any
+     * other child. Every level is a max (or min) node of its own, so each level branches on one unit's actions
+     * instead of the product of all of them and alpha-beta prunes between units. The value is the same as
+     * searching the joint actions directly. Joint actions are kept unit by unit, so a side may have any number of
+     * units.
+     * <p>
+     * Sets lastBest to the best complete joint action under this level, or null if there is none.
+     *
+     * @param acted    Whether one of the earlier units acts. The first living unit always does.
+     * @param hashMove The best move stored for the node. Its action for each unit it holds is tried first.
+     */
+    private double searchUnits(GameState state, int depth, int index, boolean acted, long hashMove,
+                               double alpha, double beta) {
+        boolean maximizing = state.isPlayerTurn();
+        int numUnits = state.getSideSize();
+        int ply = rootDepth - depth;
+        int[] partial = partial(ply, numUnits);
+        while(index < numUnits && !state.isSideUnitAlive(index)) {
+            partial[index++] = JointAction.WAIT;
+        }
+        if(index == numUnits) {
+            double value = 0;
+            lastBest = null;
+            if(acted) {
+                value = searchUnitsChild(state, partial, depth, alpha, beta);
+                lastBest = partial;
+            }
+            return value;
+        }
+
+        int slot = ply * state.getNumUnits() + index;
+        int[] actions = unitActions(slot, state.getMaxUnitActions(), numUnits);
+        int[] bestActions = unitBest[slot];
+        int count = state.getUnitActions(index, actions, acted);
+        int hint = hashMove == JointAction.NONE || index >= JointAction.MAX_UNITS ? -1 :
+                JointAction.unitAction(hashMove, index);
+        orderUnitActions(state, index, actions, unitScores[slot], count, hint);
+        if(stats != null) {
+            stats.childrenGenerated(count);
+        }
+
+        double best = maximizing ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        boolean found = false;
+        for(int i = 0; i < count; i++) {
+            if(state.collides(partial, index, actions[i])) {
+                continue;
+            }
+            partial[index] = actions[i];
+            double value = searchUnits(state, depth, index + 1, true, hashMove, alpha, beta);
+            if(aborted) {
+                return 0;
+            }
+            if(!found || (maximizing ? value > best : value < best)) {
+                best = value;
+                System.arraycopy(lastBest, 0, bestActions, 0, numUnits);
+                found = true;
+            }
+            if(maximizing ? best >= beta : best <= alpha) {
+                recordCutoff(state, JointAction.of(bestActions, Math.min(numUnits, JointAction.MAX_UNITS)), i,
+                        depth);
+                break;
+            }
+            if(maximizing) {
+                alpha = Math.max(alpha, best);
+            } else {
+                beta = Math.min(beta, best);
+            }
+        }
+        lastBest = found ? bestActions : null;
+        return best;
+    }
+
+    /**
+     * @param numUnits The number of units on the side to move, the length of the best joint actions kept
+     */
+    private int[] unitActions(int slot, int size, int numUnits) {
+        if(slot >= unitActions.length) {
+            int length = Math.max(slot + 1, unitActions.length * 2);
+            unitActions = Arrays.copyOf(unitActions, length);
+            unitScores = Arrays.copyOf(unitScores, length);
+            unitBest = Arrays.copyOf(unitBest, length);
+        }
+        if(unitActions[slot] == null || unitActions[slot].length < size) {
+            unitActions[slot] = new int[size];
+            unitScores[slot] = new long[size];
+        }
+        if(unitBest[slot] == null || unitBest[slot].length < numUnits) {
+            unitBest[slot] = new int[numUnits];
+        }
+        return unitActions[slot];
+    }
+
+    private int[] partial(int ply, int numUnits) {
+        if(ply >= partials.length) {
+            partials = Arrays.copyOf(partials, Math.max(ply + 1, partials.length * 2));
+        }
+        if(partials[ply] == null || partials[ply].length < numUnits) {
+            partials[ply] = new int[numUnits];
+        }
+        return partials[ply];
+    }
+
+    /**
+     * The stored move's action first, then attacks, then moves by history score and approach score like quiet
+     * joint actions in MoveGenerator, then waiting. Insertion sort, so ties keep their generated order.
+     */
+    private void orderUnitActions(GameState state, int index, int[] actions, long[] scores, int count, int hint) {
+        boolean player = state.isPlayerTurn();
+        for(int i = 0; i < count; i++) {
+            int action = actions[i];
+            long score;
+            if(action == hint) {
+                score = Long.MAX_VALUE;
+            } else if(JointAction.isAttack(action)) {
+                score = 1L << 60;
+            } else if(action == JointAction.WAIT) {
+                score = Long.MIN_VALUE;
+            } else {
+                score = state.getUnitApproachScore(index, action);
+                if(ordering != null) {
+                    score += (long) ordering.unitHistoryScore(index, action, player) << 8;
+                }
+            }
+            scores[i] = score;
+        }
+        for(int i = 1; i < count; i++) {
+            long score = scores[i];
+            int action = actions[i];
+            int j = i - 1;
+            while(j >= 0 && scores[j] < score) {
+                scores[j + 1] = scores[j];
+                actions[j + 1] = actions[j];
+                j--;
+            }
+            scores[j + 1] = score;
+            actions[j + 1] = action;
+        }
+    }
+
+    /**
+     * Only split nodes with enough work below them to be worth handing to another thread. The eldest child is
+     * always searched first on the current thread so the siblings start with a useful window. Nor games with a
+     * side searched a unit at a time, as the factored search's buffers are the agent's.
+     */
+    private boolean canSplit(GameState state, int depth, int numChildren) {
+        return pool != null && depth >= options.splitDepth && numChildren > 2 && listsJointActions(state);
+    }
+
+    /**
+     * Whether to search a node a unit at a time: with factored=on, and whatever the options for a side too large
+     * for its joint actions to be listed
+     */
+    private boolean isFactored(GameState state) {
+        return options.factored || !state.canListJointActions(state.isPlayerTurn());
+    }
+
+    private static boolean listsJointActions(GameState state) {
+        return state.canListJointActions(true) && state.canListJointActions(false);
+    }
+
+    /**
+     * Searches the younger siblings in parallel and waits for all of them to finish: next, the one already taken
+     * from the move generator, and then the rest
+     */
+    private void searchSiblings(GameState parent, long next, long[] rest, int depth, SplitPoint split) {
+        List<SiblingTask> tasks = new ArrayList<SiblingTask>(rest.length + 1);
+        tasks.add(new SiblingTask(parent, next, depth, split));
+        for(long sibling : rest) {
+            tasks.add(new SiblingTask(parent, sibling, depth, split));
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    /**
+     * Searches one younger sibling of a split point with the tightest window known when it starts
+     */
+    private class SiblingTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final GameState parent;
+        private final long move;
+        private final int depth;
+        private final SplitPoint split;
+
+        SiblingTask(GameState parent, long move, int depth, SplitPoint split) {
+            this.parent = parent;
+            this.move = move;
+            this.depth = depth;
+            this.split = split;
+        }
+
+        @Override
+        protected void compute() {
+            if(split.isCutoff() || aborted) {
+                return;
+            }
+            // the parent belongs to the thread that split, so even in place this sibling starts from its own copy
+            if(stats != null) {
+                stats.stateBuilt();
+            }
+            GameStateChild node = new GameStateChild(null, parent.getChild(move));
+            double alpha = split.getAlpha();
+            double beta = split.getBeta();
+            double value;
+            if(split.isMaximizing()) {
+                if(options.pvs) {
+                    value = minVal(node, depth - 1, alpha, Math.nextUp(alpha));
+                    if(aborted || value <= alpha || value >= beta) {
+                        report(value);
+                        return;
+                    }
+                    if(stats != null) {
+                        stats.research();
+                    }
+                }
+                value = minVal(node, depth - 1, alpha, beta);
+            } else {
+                if(options.pvs) {
+                    value = maxVal(node, depth - 1, Math.nextDown(beta), beta);
+                    if(aborted || value >= beta || value <= alpha) {
+                        report(value);
+                        return;
+                    }
+                    if(stats != null) {
+                        stats.research();
+                    }
+                }
+                value = maxVal(node, depth - 1, alpha, beta);
+            }
+            report(value);
+        }
+
+        private void report(double value) {
+            if(!aborted) {
+                split.report(value, move);
+            }
+        }
+    }
+
+    /**
+     * Whether a stored value is usable with the current window without searching the node again
+     */
+    private static boolean isCutoff(byte bound, double value, double alpha, double beta) {
+        switch(bound) {
+            case TranspositionTable.EXACT:
+                return true;
+            case TranspositionTable.LOWER:
+                return value >= beta;
+            default:
+                return value <= alpha;
+        }
+    }
+
+    /**
+     * Records a searched value along with whether it is exact or only a bound on the true value.
+     * alpha and beta are the window the node was entered with.
+     */
+    private void storeResult(long key, int depth, int ply, double value, double alpha, double beta,
+                             long bestMove) {
+        if(table == null) {
+            return;
+        }
+        byte bound = TranspositionTable.EXACT;
+        if(value <= alpha) {
+            bound = TranspositionTable.UPPER;
+        } else if(value >= beta) {
+            bound = TranspositionTable.LOWER;
+        }
+        table.store(key, depth, toTable(value, ply), bound,
+                bound == TranspositionTable.UPPER ? JointAction.NONE : bestMove);
+    }
+
+    /**
+     * The utility of a position n plys below the root, with wins and losses turned into finite mate scores
+     */
+    private static double evaluate(GameState state, int ply) {
+        return toScore(state.getUtility(), ply);
+    }
+
+    /**
+     * evaluate for a utility computed without the state, by a LeafBatch
+     */
+    private static double toScore(double utility, int ply) {
+        if(utility == Double.POSITIVE_INFINITY) {
+            return MATE - ply;
+        }
+        if(utility == Double.NEGATIVE_INFINITY) {
+            return -(MATE - ply);
+        }
+        return utility;
+    }
+
+    private static boolean isMateScore(double value) {
+        return Math.abs(value) >= MATE - MAX_MATE_PLYS;
+    }
+
+    /**
+     * Mate scores count plys from the root, but a stored position can be reached at a different ply. The table
+     * keeps them counted from the position itself.
+     */
+    private static double toTable(double value, int ply) {
+        if(value >= MATE - MAX_MATE_PLYS) {
+            return value + ply;
+        }
+        if(value <= -(MATE - MAX_MATE_PLYS)) {
+            return value - ply;
+        }
+        return value;
+    }
+
+    private static double fromTable(double value, int ply) {
+        if(value >= MATE - MAX_MATE_PLYS) {
+            return value - ply;
+        }
+        if(value <= -(MATE - MAX_MATE_PLYS)) {
+            return value + ply;
+        }
+        return value;
+    }
+
+    /**
+     * Searches the previous iteration's best move first since it is the most likely to still be best
+     */
+    private static void moveToFront(long[] children, long move) {
+        for(int i = 0; i < children.length; i++) {
+            if(children[i] == move) {
+                System.arraycopy(children, 0, children, 1, i);
+                children[0] = move;
+                return;
             }
         }
-        //if none of the children's utility match the specified value, use heuristics to return a hopefully decent match
-        //(This should not happen)
-        return orderChildrenWithHeuristics(node.state.getChildren()).get(0);
     }
 
     /*public GameStateChild alphaBetaSearch(GameStateChild node, int depth, double alpha, double beta)
@@ -181,34 +1522,103 @@ public class MinimaxAlphaBeta extends Agent {
      */
 
     public List<GameStateChild> orderChildrenWithHeuristics(List<GameStateChild> children){
-        List<GameStateChild> ordered = new LinkedList<GameStateChild>();
-        List<GameStateChild> moves = new LinkedList<GameStateChild>();
-        for(GameStateChild child : children){
-            int numAttacks = 0;
-            for(Action action : child.action.values()){
-                if(action.getType() == ActionType.PRIMITIVEATTACK){
-                    numAttacks++;
-                }
-            }
-            if(numAttacks == child.action.size()){
-                ordered.add(0, child);
-            } else if (numAttacks > 0){
-                if(ordered.isEmpty()){
-                    ordered.add(0, child);
-                } else {
-                    ordered.add(1, child);
-                }
-            } else {
-                moves.add(child);
-            }
+        if(children.isEmpty()) {
+            return children;
+        }
+        GameState state = children.get(0).state.withMover(children.get(0).action);
+        Map<Long, GameStateChild> byAction = new HashMap<Long, GameStateChild>();
+        long[] jointActions = new long[children.size()];
+        for(int i = 0; i < jointActions.length; i++) {
+            jointActions[i] = state.jointActionOf(children.get(i).action);
+            byAction.put(jointActions[i], children.get(i));
+        }
+        MoveGenerator moves = new MoveGenerator(state, jointActions, JointAction.NONE, ordering, 0);
+        List<GameStateChild> ordered = new ArrayList<GameStateChild>(children.size());
+        for(long move = moves.next(); move != JointAction.NONE; move = moves.next()) {
+            ordered.add(byAction.get(move));
         }
-        moves.sort(new Comparator<GameStateChild>() {
-            @Override
-            public int compare(GameStateChild gameStateChild, GameStateChild t1) {
-                return Double.compare(gameStateChild.state.getUtility(), t1.state.getUtility());
-            }
-        });
-        ordered.addAll(moves);
         return ordered;
     }
+
+    /**
+     * Searches the state a joint action leads to from a maxVal node, see enterChild
+     */
+    private double searchMinChild(GameState parent, long move, int depth, double alpha, double beta) {
+        return searchMinChild(parent, move, depth, 0, alpha, beta);
+    }
+
+    /**
+     * @param reduction Plys less than depth - 1 to search the child to. The child's ply is worked out from its
+     *                  depth, so a reduced subtree counts its plys as if it were that much deeper.
+     */
+    private double searchMinChild(GameState parent, long move, int depth, int reduction, double alpha,
+                                  double beta) {
+        double value = minVal(enterChild(parent, move, depth), depth - 1 - reduction, alpha, beta);
+        leaveChild(parent);
+        return value;
+    }
+
+    /**
+     * Searches the state a joint action leads to from a minVal node, see enterChild
+     */
+    private double searchMaxChild(GameState parent, long move, int depth, double alpha, double beta) {
+        return searchMaxChild(parent, move, depth, 0, alpha, beta);
+    }
+
+    /**
+     * @param reduction Plys less than depth - 1 to search the child to, see searchMinChild
+     */
+    private double searchMaxChild(GameState parent, long move, int depth, int reduction, double alpha,
+                                  double beta) {
+        double value = maxVal(enterChild(parent, move, depth), depth - 1 - reduction, alpha, beta);
+        leaveChild(parent);
+        return value;
+    }
+
+    /**
+     * The node for the state a joint action leads to. The child state is only built here, once the search
+     * actually reaches the move; in place the move is made on the parent and leaveChild undoes it. With the arena
+     * on, the node and the child state are the ones kept for the child's ply.
+     *
+     * @param depth The parent's remaining depth
+     */
+    private GameStateChild enterChild(GameState parent, long move, int depth) {
+        int ply = rootDepth - depth + 1;
+        if(options.inPlace) {
+            parent.makeMove(move);
+            return arena != null ? arena.node(ply, parent) : new GameStateChild(null, parent);
+        }
+        if(stats != null) {
+            stats.stateBuilt();
+        }
+        return arena != null ? arena.child(ply, parent, move) : new GameStateChild(null, parent.getChild(move));
+    }
+
+    /**
+     * Searches the state the joint action searchUnits built leads to, see enterChild
+     */
+    private double searchUnitsChild(GameState parent, int[] actions, int depth, double alpha, double beta) {
+        boolean maximizing = parent.isPlayerTurn();
+        int ply = rootDepth - depth + 1;
+        GameStateChild child;
+        if(options.inPlace) {
+            parent.makeMove(actions);
+            child = arena != null ? arena.node(ply, parent) : new GameStateChild(null, parent);
+        } else {
+            if(stats != null) {
+                stats.stateBuilt();
+            }
+            child = arena != null ? arena.child(ply, parent, actions) :
+                    new GameStateChild(null, parent.getChild(actions));
+        }
+        double value = maximizing ? minVal(child, depth - 1, alpha, beta) : maxVal(child, depth - 1, alpha, beta);
+        leaveChild(parent);
+        return value;
+    }
+
+    private void leaveChild(GameState parent) {
+        if(options.inPlace) {
+            parent.unmakeMove();
+        }
+    }
 }
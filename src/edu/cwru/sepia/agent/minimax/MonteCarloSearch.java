@@ -0,0 +1,336 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Monte Carlo tree search with UCT, the engine=mcts alternative to alpha-beta. Each playout walks down the tree
+ * choosing children by UCT, adds the children of the leaf it stops at if that leaf has been reached before, plays
+ * the position out for rolloutPlys plys with the rollout policy and adds the result to every node on the way.
+ * <p>
+ * Playouts are scored for the footmen: 1 for a win, 0 for a loss and otherwise the change in getUtility since the
+ * root squashed into (0, 1), so they reward what the alpha-beta search rewards without needing to reach the end
+ * of the game. Where the archers move, UCT uses 1 minus the mean score.
+ * <p>
+ * Children are added in MoveGenerator order and untried children are tried first, in that order, so attacks and
+ * moves towards the enemy get their first playouts before the rest. With threads=n each thread grows its own tree
+ * from the root (root parallelisation) and the root children's visits are added up; the move played is the most
+ * visited one.
+ * <p>
+ * A tree is a set of flat arrays indexed by node. Each search grows a new tree from its root, reusing the arrays
+ * of the turns before. It stops growing at MAX_NODES nodes and carries on with playouts from its leaves.
+ */
+final class MonteCarloSearch {
+    /**
+     * Utility points above the root that score a playout about 0.73 instead of 0.5
+     */
+    private static final double REWARD_SCALE = 10;
+    private static final int MAX_NODES = 1 << 21;
+    /**
+     * Playouts between reads of the clock
+     */
+    private static final int CLOCK_INTERVAL = 16;
+    private static final long SEED = 0x5DEECE66DL;
+
+    private final SearchOptions options;
+    private final Tree[] trees;
+    private int playouts;
+    private long elapsed;
+    private int bestVisits;
+    private double bestScore;
+
+    MonteCarloSearch(SearchOptions options) {
+        this.options = options;
+        this.trees = new Tree[options.threads];
+        for (int i = 0; i < trees.length; i++) {
+            trees[i] = new Tree(new SplittableRandom(SEED + i));
+        }
+    }
+
+    /**
+     * @param deadline System.nanoTime() to stop at, or 0 to run options.playouts playouts instead
+     * @param pool The pool to grow the trees on with threads=n, or null for one tree on the calling thread
+     * @return The most visited joint action of the root, or JointAction.NONE if it has none
+     */
+    long search(final GameState root, final long deadline, ForkJoinPool pool) {
+        long start = System.nanoTime();
+        final double base = root.getUtility();
+        if (trees.length == 1) {
+            trees[0].search(root, base, deadline, deadline == 0 ? options.playouts : Integer.MAX_VALUE);
+        } else {
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(trees.length);
+            for (int i = 0; i < trees.length; i++) {
+                final Tree tree = trees[i];
+                final int budget = deadline == 0 ? (options.playouts + trees.length - 1 - i) / trees.length :
+                        Integer.MAX_VALUE;
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        tree.search(root, base, deadline, budget);
+                        return null;
+                    }
+                });
+            }
+            pool.invokeAll(tasks);
+        }
+        elapsed = System.nanoTime() - start;
+
+        playouts = 0;
+        for (Tree tree : trees) {
+            playouts += tree.playouts;
+        }
+        long best = JointAction.NONE;
+        bestVisits = -1;
+        for (int i = 0; i < trees[0].numChildren[0]; i++) {
+            int visits = 0;
+            double rewards = 0;
+            for (Tree tree : trees) {
+                visits += tree.visits[tree.firstChild[0] + i];
+                rewards += tree.rewards[tree.firstChild[0] + i];
+            }
+            if (visits > bestVisits) {
+                best = trees[0].moves[trees[0].firstChild[0] + i];
+                bestVisits = visits;
+                bestScore = visits == 0 ? 0 : rewards / visits;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return One line on the last search: playouts, their rate and how settled the chosen move was
+     */
+    String getTurnSummary() {
+        double millis = elapsed / 1e6;
+        int nodes = 0;
+        for (Tree tree : trees) {
+            nodes += tree.size;
+        }
+        return String.format("mcts: %d playouts in %.1f ms (%.0f/s), %d nodes, best move %d visits scoring %.3f",
+                playouts, millis, playouts / Math.max(millis, 1e-3) * 1000, nodes, bestVisits, bestScore);
+    }
+
+    /**
+     * One search tree and everything a thread needs to grow it
+     */
+    private final class Tree {
+        private long[] moves = new long[0];
+        private int[] firstChild = new int[0];
+        private int[] numChildren = new int[0];
+        private int[] visits = new int[0];
+        /**
+         * Sum of the scores of the playouts through each node, for the footmen
+         */
+        private double[] rewards = new double[0];
+        private int size;
+        private int[] path = new int[64];
+        private int pathLength;
+        private GameState state;
+        private final MoveGenerator generator = new MoveGenerator(64);
+        private int[] actions = new int[0];
+        private final SplittableRandom random;
+        private int playouts;
+
+        private Tree(SplittableRandom random) {
+            this.random = random;
+        }
+
+        private void search(GameState root, double base, long deadline, int budget) {
+            if (state == null) {
+                state = root.copy();
+            }
+            state.setTo(root);
+            size = 0;
+            playouts = 0;
+            addNode(JointAction.NONE);
+            if (!expand(0, 0)) {
+                return;
+            }
+            while (playouts < budget) {
+                if (deadline != 0 && playouts % CLOCK_INTERVAL == 0 && System.nanoTime() > deadline) {
+                    break;
+                }
+                playout(root, base);
+                playouts++;
+            }
+        }
+
+        private void playout(GameState root, double base) {
+            state.setTo(root);
+            pathLength = 0;
+            int node = 0;
+            addToPath(node);
+            for (int ply = 0; ; ply++) {
+                if (numChildren[node] == 0 && (visits[node] == 0 || !expand(node, ply))) {
+                    break;
+                }
+                node = select(node, state.isPlayerTurn());
+                state.playMove(moves[node]);
+                addToPath(node);
+                if (visits[node] == 0) {
+                    break;
+                }
+            }
+            double reward = rollout(base);
+            for (int i = 0; i < pathLength; i++) {
+                visits[path[i]]++;
+                rewards[path[i]] += reward;
+            }
+        }
+
+        /**
+         * The untried child that comes first, or else the child with the highest upper confidence bound
+         */
+        private int select(int node, boolean player) {
+            int first = firstChild[node];
+            int end = first + numChildren[node];
+            double logVisits = Math.log(visits[node]);
+            int best = first;
+            double bestBound = Double.NEGATIVE_INFINITY;
+            for (int child = first; child < end; child++) {
+                int n = visits[child];
+                if (n == 0) {
+                    return child;
+                }
+                double mean = rewards[child] / n;
+                double bound = (player ? mean : 1 - mean) + options.exploration * Math.sqrt(logVisits / n);
+                if (bound > bestBound) {
+                    best = child;
+                    bestBound = bound;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Adds a child for every joint action of state, which is the position at node
+         *
+         * @return Whether there were any and the tree had room for them
+         */
+        private boolean expand(int node, int ply) {
+            if (state.isGameOver()) {
+                return false;
+            }
+            generator.reset(state, JointAction.NONE, null, ply);
+            int count = generator.size();
+            if (count == 0 || size + count > MAX_NODES) {
+                return false;
+            }
+            firstChild[node] = size;
+            numChildren[node] = count;
+            for (long move = generator.next(); move != JointAction.NONE; move = generator.next()) {
+                addNode(move);
+            }
+            return true;
+        }
+
+        private void addNode(long move) {
+            if (size == moves.length) {
+                int capacity = Math.max(1024, size * 2);
+                moves = Arrays.copyOf(moves, capacity);
+                firstChild = Arrays.copyOf(firstChild, capacity);
+                numChildren = Arrays.copyOf(numChildren, capacity);
+                visits = Arrays.copyOf(visits, capacity);
+                rewards = Arrays.copyOf(rewards, capacity);
+            }
+            moves[size] = move;
+            firstChild[size] = 0;
+            numChildren[size] = 0;
+            visits[size] = 0;
+            rewards[size] = 0;
+            size++;
+        }
+
+        private void addToPath(int node) {
+            if (pathLength == path.length) {
+                path = Arrays.copyOf(path, pathLength * 2);
+            }
+            path[pathLength++] = node;
+        }
+
+        /**
+         * Plays state out and scores where it ends up, see the class comment
+         */
+        private double rollout(double base) {
+            for (int ply = 0; ply < options.rolloutPlys && !state.isGameOver(); ply++) {
+                state.playMove(rolloutMove());
+            }
+            double utility = state.getUtility();
+            if (utility == Double.POSITIVE_INFINITY) {
+                return 1;
+            }
+            if (utility == Double.NEGATIVE_INFINITY) {
+                return 0;
+            }
+            return 1 / (1 + Math.exp((base - utility) / REWARD_SCALE));
+        }
+
+        /**
+         * A joint action of the player to move with every living unit acting on its own by the rollout policy.
+         * As in getJointActions the first unit that can act does not wait.
+         */
+        private long rolloutMove() {
+            if (actions.length < state.getMaxUnitActions()) {
+                actions = new int[state.getMaxUnitActions()];
+            }
+            long jointAction = JointAction.NONE;
+            boolean canWait = false;
+            for (int i = 0, n = state.getSideSize(); i < n; i++) {
+                if (!state.isSideUnitAlive(i)) {
+                    continue;
+                }
+                int count = state.getUnitActions(i, actions, canWait);
+                if (count > 0) {
+                    int action = options.heuristicRollouts ? heuristicAction(i, count) : actions[random.nextInt(count)];
+                    jointAction = JointAction.withUnitAction(jointAction, i, action);
+                    canWait = true;
+                }
+            }
+            return jointAction;
+        }
+
+        /**
+         * Attacks the weakest living enemy in range if there is one. Otherwise three times in four takes the move
+         * gaining the most ground for its side, as getApproachScore measures it, and else acts at random.
+         */
+        private int heuristicAction(int index, int count) {
+            int attack = -1;
+            for (int k = 0; k < count; k++) {
+                int action = actions[k];
+                if (JointAction.isAttack(action) && state.getUnitHp(JointAction.targetOf(action)) > 0 &&
+                        (attack < 0 || state.getUnitHp(JointAction.targetOf(action)) <
+                                state.getUnitHp(JointAction.targetOf(attack)))) {
+                    attack = action;
+                }
+            }
+            if (attack >= 0) {
+                return attack;
+            }
+            if (random.nextInt(4) == 0) {
+                return actions[random.nextInt(count)];
+            }
+            int best = -1;
+            int bestScore = Integer.MIN_VALUE;
+            int ties = 0;
+            for (int k = 0; k < count; k++) {
+                int action = actions[k];
+                if (!JointAction.isMove(action)) {
+                    continue;
+                }
+                int score = state.getUnitApproachScore(index, action);
+                if (score > bestScore) {
+                    best = action;
+                    bestScore = score;
+                    ties = 1;
+                } else if (score == bestScore && random.nextInt(++ties) == 0) {
+                    best = action;
+                }
+            }
+            return best >= 0 ? best : actions[random.nextInt(count)];
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Arrays;
+
+/**
+ * Hands out the joint actions of a state one at a time in the order the search should try them:
+ * <ol>
+ * <li>the transposition table's best move</li>
+ * <li>joint actions with attacks, the most attacking units first</li>
+ * <li>quiet joint actions: this ply's killer moves, then by history score, then the ones moving units towards
+ * their preferred distance from the enemy (see MoveOrdering)</li>
+ * </ol>
+ * Only the joint actions themselves are generated up front. The search builds the resulting state when it reaches
+ * each one, so a cutoff early in the list saves building the rest, and the quiet moves are not even sorted unless
+ * the search gets to them.
+ * <p>
+ * Joint actions are JointAction longs, so the lists are plain long arrays and comparing two moves is ==.
+ * <p>
+ * A generator can be reset to another state and reused. Its lists only grow, so one kept per ply stops
+ * allocating once it has seen the largest branching factor.
+ */
+final class MoveGenerator {
+    private static final int HASH = 0, ATTACKS = 1, QUIET = 2, DONE = 3;
+
+    private GameState state;
+    private MoveOrdering ordering;
+    private int ply;
+    private long hashMove;
+    private long[] jointActions;
+    private int[] scratch = new int[0];
+    private long[] attacks;
+    private long[] quiet;
+    private long[] scores;
+    private int numAttacks, numQuiet;
+    private int size;
+    private int stage;
+    private int index;
+
+    /**
+     * A generator with room for capacity joint actions, to be reset before use
+     */
+    MoveGenerator(int capacity) {
+        jointActions = new long[capacity];
+        attacks = new long[capacity];
+        quiet = new long[capacity];
+        scores = new long[capacity];
+    }
+
+    /**
+     * @param state The state to move from
+     * @param hashMove The best move stored for this state or JointAction.NONE
+     * @param ordering Killer and history tables or null to order quiet moves by distance alone
+     * @param ply Distance of the state from the root
+     */
+    MoveGenerator(GameState state, long hashMove, MoveOrdering ordering, int ply) {
+        this(0);
+        reset(state, hashMove, ordering, ply);
+    }
+
+    MoveGenerator(GameState state, long[] jointActions, long hashMove, MoveOrdering ordering, int ply) {
+        this(jointActions.length);
+        this.state = state;
+        this.ordering = ordering;
+        this.ply = ply;
+        classify(jointActions, jointActions.length, hashMove);
+    }
+
+    /**
+     * Starts over with the joint actions of another state, see the constructor
+     *
+     * @return This generator
+     */
+    MoveGenerator reset(GameState state, long hashMove, MoveOrdering ordering, int ply) {
+        this.state = state;
+        this.ordering = ordering;
+        this.ply = ply;
+        int scratchSize = state.jointActionScratchSize();
+        if (scratch.length < scratchSize) {
+            scratch = new int[scratchSize];
+        }
+        int count = state.getJointActions(jointActions, scratch);
+        if (count > jointActions.length) {
+            grow(count);
+            count = state.getJointActions(jointActions, scratch);
+        }
+        classify(jointActions, count, hashMove);
+        return this;
+    }
+
+    private void grow(int capacity) {
+        jointActions = new long[capacity];
+        attacks = new long[capacity];
+        quiet = new long[capacity];
+        scores = new long[capacity];
+    }
+
+    private void classify(long[] jointActions, int count, long hashMove) {
+        long found = JointAction.NONE;
+        numAttacks = 0;
+        numQuiet = 0;
+        for (int i = 0; i < count; i++) {
+            long jointAction = jointActions[i];
+            if (found == JointAction.NONE && jointAction == hashMove) {
+                found = jointAction;
+            } else if (JointAction.countAttacks(jointAction) > 0) {
+                attacks[numAttacks++] = jointAction;
+            } else {
+                quiet[numQuiet++] = jointAction;
+            }
+        }
+        this.hashMove = found;
+        this.size = count;
+        this.stage = HASH;
+        this.index = 0;
+        sortAttacks();
+    }
+
+    /**
+     * @return The total number of joint actions, including ones already handed out
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return The next joint action to search or JointAction.NONE when there are none left
+     */
+    long next() {
+        // each stage that runs out moves on to the next one in the same call
+        if (stage == HASH) {
+            stage = ATTACKS;
+            if (hashMove != JointAction.NONE) {
+                return hashMove;
+            }
+        }
+        if (stage == ATTACKS) {
+            if (index < numAttacks) {
+                return attacks[index++];
+            }
+            stage = QUIET;
+            index = 0;
+            sortQuiet();
+        }
+        if (stage == QUIET) {
+            if (index < numQuiet) {
+                return quiet[index++];
+            }
+            stage = DONE;
+        }
+        return JointAction.NONE;
+    }
+
+    /**
+     * @return Every joint action not handed out yet, in order
+     */
+    long[] remaining() {
+        long[] rest = new long[size];
+        int count = 0;
+        for (long jointAction = next(); jointAction != JointAction.NONE; jointAction = next()) {
+            rest[count++] = jointAction;
+        }
+        return Arrays.copyOf(rest, count);
+    }
+
+    /**
+     * Most attacking units first, counted as a share of the acting units. Insertion sort, so ties keep their
+     * generated order.
+     */
+    private void sortAttacks() {
+        for (int i = 1; i < numAttacks; i++) {
+            long jointAction = attacks[i];
+            int count = JointAction.countAttacks(jointAction);
+            int size = JointAction.size(jointAction);
+            int j = i - 1;
+            while (j >= 0 && count * JointAction.size(attacks[j]) > JointAction.countAttacks(attacks[j]) * size) {
+                attacks[j + 1] = attacks[j];
+                j--;
+            }
+            attacks[j + 1] = jointAction;
+        }
+    }
+
+    private void sortQuiet() {
+        if (numQuiet < 2) {
+            return;
+        }
+        boolean player = state.isPlayerTurn();
+        for (int i = 0; i < numQuiet; i++) {
+            long jointAction = quiet[i];
+            long score = state.getApproachScore(jointAction);
+            if (ordering != null) {
+                score += ((long) ordering.killerRank(jointAction, ply) << 40) +
+                        ((long) ordering.historyScore(jointAction, player) << 8);
+            }
+            scores[i] = score;
+        }
+        // insertion sort on the primitive scores, highest first and stable for ties
+        for (int i = 1; i < numQuiet; i++) {
+            long score = scores[i];
+            long jointAction = quiet[i];
+            int j = i - 1;
+            while (j >= 0 && scores[j] < score) {
+                scores[j + 1] = scores[j];
+                quiet[j + 1] = quiet[j];
+                j--;
+            }
+            scores[j + 1] = score;
+            quiet[j + 1] = jointAction;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Arrays;
+
+/**
+ * What the search has learned about which moves tend to be good, used by MoveGenerator to order quiet moves
+ * without evaluating them:
+ * <ul>
+ * <li>killer moves: the last two quiet joint actions that caused a cutoff at each ply. A move that refuted one
+ * position is likely to refute its siblings too.</li>
+ * <li>history: for each single unit action (side, unit, move direction or attack target) a score that grows with every
+ * cutoff it took part in, weighted by the depth of the cutoff.</li>
+ * </ul>
+ * Both survive between iterations of iterative deepening and between turns. History is halved at the start of
+ * every turn so that old experience fades. Updates from several search threads may race, which can only make an
+ * ordering slightly worse.
+ */
+public class MoveOrdering {
+    /**
+     * Values a unit's part of a JointAction can take, one byte
+     */
+    private static final int UNIT_ACTIONS = 256;
+    private static final int MAX_PLY = 128;
+
+    /**
+     * One slot per side, unit and unit action, see historyIndex
+     */
+    private final int[] history = new int[2 * JointAction.MAX_UNITS * UNIT_ACTIONS];
+    /**
+     * The two killers of ply p are at 2p (newest) and 2p + 1
+     */
+    private final long[] killers = new long[MAX_PLY * 2];
+
+    /**
+     * Ages the history and forgets the killers, which belong to the previous turn's plys
+     */
+    public void newSearch() {
+        for (int i = 0; i < history.length; i++) {
+            history[i] >>= 1;
+        }
+        Arrays.fill(killers, JointAction.NONE);
+    }
+
+    /**
+     * Forgets everything, as if no search had run yet
+     */
+    public void clear() {
+        Arrays.fill(history, 0);
+        newSearch();
+    }
+
+    /**
+     * Records a quiet joint action that caused a cutoff
+     *
+     * @param jointAction A JointAction
+     * @param player      Whether the footmen made it
+     * @param ply         Distance from the root
+     * @param depth       Remaining depth of the node that was cut off
+     */
+    void recordCutoff(long jointAction, boolean player, int ply, int depth) {
+        for (int i = 0, n = JointAction.numUnits(jointAction); i < n; i++) {
+            int action = JointAction.unitAction(jointAction, i);
+            if (action != JointAction.WAIT) {
+                int index = historyIndex(player, i, action);
+                history[index] = Math.min(history[index] + depth * depth, 1 << 24);
+            }
+        }
+        if (ply < MAX_PLY && killers[2 * ply] != jointAction) {
+            killers[2 * ply + 1] = killers[2 * ply];
+            killers[2 * ply] = jointAction;
+        }
+    }
+
+    /**
+     * @return 2 for the newest killer at this ply, 1 for the older one and 0 otherwise
+     */
+    int killerRank(long jointAction, int ply) {
+        if (ply >= MAX_PLY) {
+            return 0;
+        }
+        if (killers[2 * ply] == jointAction) {
+            return 2;
+        }
+        return killers[2 * ply + 1] == jointAction ? 1 : 0;
+    }
+
+    int historyScore(long jointAction, boolean player) {
+        int score = 0;
+        for (int i = 0, n = JointAction.numUnits(jointAction); i < n; i++) {
+            int action = JointAction.unitAction(jointAction, i);
+            if (action != JointAction.WAIT) {
+                score += history[historyIndex(player, i, action)];
+            }
+        }
+        return score;
+    }
+
+    /**
+     * historyScore of one unit's action, 0 for the units of a side past the first JointAction.MAX_UNITS, which the
+     * factored search reaches but no JointAction holds
+     *
+     * @param unit Index of the unit within its side
+     */
+    int unitHistoryScore(int unit, int action, boolean player) {
+        return unit < JointAction.MAX_UNITS ? history[historyIndex(player, unit, action)] : 0;
+    }
+
+    /**
+     * @param unit   Index of the unit within its side
+     * @param action The unit's part of a JointAction
+     */
+    private static int historyIndex(boolean player, int unit, int action) {
+        return ((player ? 0 : JointAction.MAX_UNITS) + unit) * UNIT_ACTIONS + action;
+    }
+}
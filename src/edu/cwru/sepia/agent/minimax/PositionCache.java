@@ -0,0 +1,199 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Root search results kept from one episode to the next through savePlayerData and loadPlayerData, so a position
+ * searched before, such as the opening of a map that is played again and again, is answered without searching.
+ * Positions are keyed by GameState.getLayoutKey and getZobristHash and hold the value, depth and best move of the
+ * deepest search that finished.
+ * <p>
+ * The saved form is a header (MAGIC and the number of records) followed by fixed size records sorted by layout
+ * key, then zobrist key, so a loaded file is searched in place by binary search. Loading from a file maps it
+ * instead of reading it, until detach copies it out before the file is written again. Positions searched since
+ * loading are kept in a map and written out with the loaded ones on the next save, a deeper result replacing a
+ * shallower one.
+ */
+final class PositionCache {
+    private static final int MAGIC = 0x50434331;
+    private static final int HEADER_SIZE = 8;
+    /**
+     * Record layout: layout key, zobrist key, value as double bits, move, depth
+     */
+    private static final int LAYOUT = 0, KEY = 8, VALUE = 16, MOVE = 24, DEPTH = 32, RECORD_SIZE = 36;
+
+    private static final Comparator<long[]> BY_KEYS = new Comparator<long[]>() {
+        @Override
+        public int compare(long[] a, long[] b) {
+            int order = Long.compare(a[0], b[0]);
+            return order != 0 ? order : Long.compare(a[1], b[1]);
+        }
+    };
+
+    private ByteBuffer loaded = ByteBuffer.allocate(HEADER_SIZE);
+    private int numLoaded;
+    /**
+     * Positions searched since loading by layout key ^ zobrist key, each as {layout key, zobrist key, value bits,
+     * move, depth}
+     */
+    private final Map<Long, long[]> added = new HashMap<Long, long[]>();
+
+    /**
+     * @param entry Receives the value, depth and move if the position is cached, with an EXACT bound
+     * @return Whether the position is cached
+     */
+    boolean probe(long layout, long key, TranspositionTable.Entry entry) {
+        long[] record = added.get(layout ^ key);
+        if (record != null && record[0] == layout && record[1] == key) {
+            entry.key = key;
+            entry.value = Double.longBitsToDouble(record[2]);
+            entry.move = record[3];
+            entry.depth = (int) record[4];
+            entry.bound = TranspositionTable.EXACT;
+            return true;
+        }
+        int index = find(layout, key);
+        if (index < 0) {
+            return false;
+        }
+        int offset = HEADER_SIZE + index * RECORD_SIZE;
+        entry.key = key;
+        entry.value = loaded.getDouble(offset + VALUE);
+        entry.move = loaded.getLong(offset + MOVE);
+        entry.depth = loaded.getInt(offset + DEPTH);
+        entry.bound = TranspositionTable.EXACT;
+        return true;
+    }
+
+    /**
+     * Keeps a root search result unless the position is already cached at least as deep
+     */
+    void store(long layout, long key, int depth, double value, long move) {
+        TranspositionTable.Entry entry = new TranspositionTable.Entry();
+        if (probe(layout, key, entry) && entry.depth >= depth) {
+            return;
+        }
+        added.put(layout ^ key, new long[]{layout, key, Double.doubleToRawLongBits(value), move, depth});
+    }
+
+    /**
+     * @return The number of positions cached
+     */
+    int size() {
+        int size = added.size();
+        for (long[] record : added.values()) {
+            if (find(record[0], record[1]) >= 0) {
+                size--;
+            }
+        }
+        return numLoaded + size;
+    }
+
+    /**
+     * Writes every position cached, loaded or added, without closing the stream
+     */
+    void save(OutputStream os) throws IOException {
+        List<long[]> records = new ArrayList<long[]>(numLoaded + added.size());
+        for (int i = 0; i < numLoaded; i++) {
+            int offset = HEADER_SIZE + i * RECORD_SIZE;
+            long layout = loaded.getLong(offset + LAYOUT);
+            long key = loaded.getLong(offset + KEY);
+            long[] replaced = added.get(layout ^ key);
+            if (replaced == null || replaced[0] != layout || replaced[1] != key) {
+                records.add(new long[]{layout, key, loaded.getLong(offset + VALUE), loaded.getLong(offset + MOVE),
+                        loaded.getInt(offset + DEPTH)});
+            }
+        }
+        records.addAll(added.values());
+        records.sort(BY_KEYS);
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+        out.writeInt(MAGIC);
+        out.writeInt(records.size());
+        for (long[] record : records) {
+            out.writeLong(record[0]);
+            out.writeLong(record[1]);
+            out.writeLong(record[2]);
+            out.writeLong(record[3]);
+            out.writeInt((int) record[4]);
+        }
+        out.flush();
+    }
+
+    /**
+     * Replaces the loaded positions with those saved to the stream, mapping the rest of the file if it is one.
+     * Positions added since the last load are kept.
+     *
+     * @throws IOException If the stream cannot be read or does not hold a saved cache
+     */
+    void load(InputStream is) throws IOException {
+        ByteBuffer buffer;
+        if (is instanceof FileInputStream) {
+            FileChannel channel = ((FileInputStream) is).getChannel();
+            long position = channel.position();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, channel.size() - position);
+        } else {
+            buffer = ByteBuffer.wrap(is.readAllBytes());
+        }
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a saved position cache");
+        }
+        int count = buffer.getInt(4);
+        if (count < 0 || buffer.capacity() < HEADER_SIZE + (long) count * RECORD_SIZE) {
+            throw new IOException("Saved position cache is truncated");
+        }
+        loaded = buffer;
+        numLoaded = count;
+    }
+
+    /**
+     * Copies loaded positions that are still mapped onto the heap, so that saving may overwrite the file they
+     * were mapped from. A mapped file that is cut short faults on the next read.
+     */
+    void detach() {
+        if (!loaded.isDirect()) {
+            return;
+        }
+        ByteBuffer copy = ByteBuffer.allocate(HEADER_SIZE + numLoaded * RECORD_SIZE);
+        ByteBuffer source = loaded.duplicate();
+        source.position(0).limit(copy.capacity());
+        copy.put(source);
+        loaded = copy;
+    }
+
+    /**
+     * @return The index of the loaded record for the position or -1
+     */
+    private int find(long layout, long key) {
+        int low = 0;
+        int high = numLoaded - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int offset = HEADER_SIZE + mid * RECORD_SIZE;
+            int order = Long.compare(loaded.getLong(offset + LAYOUT), layout);
+            if (order == 0) {
+                order = Long.compare(loaded.getLong(offset + KEY), key);
+            }
+            if (order < 0) {
+                low = mid + 1;
+            } else if (order > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,116 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * The best joint actions of a root search with their backed-up scores, best first, recorded as the root's
+ * children are searched. Up to multiPv of them are kept.
+ * <p>
+ * The root only cuts off a move once it is proven worse than the multiPv-th best so far, so every score kept is
+ * exact unless the whole root failed outside its window. With multiPv=1 that is the usual alpha-beta root, which
+ * keeps just the best move.
+ */
+public final class RootMoves {
+    private final long[] moves;
+    private final double[] scores;
+    private int size;
+    private GameState root;
+
+    /**
+     * @param capacity The number of best moves to keep
+     */
+    RootMoves(int capacity) {
+        moves = new long[capacity];
+        scores = new double[capacity];
+    }
+
+    /**
+     * @return The number of moves kept, 0 before the first root move was searched
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param rank 0 for the best move
+     * @return The move's backed-up score
+     */
+    public double getScore(int rank) {
+        checkRank(rank);
+        return scores[rank];
+    }
+
+    /**
+     * @param rank 0 for the best move
+     * @return The move as SEPIA actions and the state it leads to
+     */
+    public GameStateChild getChild(int rank) {
+        checkRank(rank);
+        return new GameStateChild(root.toActionMap(moves[rank]), root.getChild(moves[rank]));
+    }
+
+    long getMove(int rank) {
+        checkRank(rank);
+        return moves[rank];
+    }
+
+    void clear(GameState root) {
+        this.root = root;
+        size = 0;
+    }
+
+    boolean isFull() {
+        return size == moves.length;
+    }
+
+    /**
+     * @return The score a move needs to beat to be kept: the worst kept score once full, minus infinity before
+     */
+    double bound() {
+        return isFull() ? scores[size - 1] : Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Keeps the move if it is among the best so far. A move already kept is moved to its new score, and a move
+     * tied with a kept one ranks below it, as the search keeps the first of equal moves.
+     */
+    void add(long move, double score) {
+        int index = 0;
+        while (index < size && moves[index] != move) {
+            index++;
+        }
+        if (index == size) {
+            if (isFull() && score <= bound()) {
+                return;
+            }
+            if (!isFull()) {
+                // otherwise the worst kept move makes way
+                size++;
+            }
+            index = size - 1;
+        }
+        while (index > 0 && scores[index - 1] < score) {
+            moves[index] = moves[index - 1];
+            scores[index] = scores[index - 1];
+            index--;
+        }
+        while (index + 1 < size && scores[index + 1] >= score) {
+            moves[index] = moves[index + 1];
+            scores[index] = scores[index + 1];
+            index++;
+        }
+        moves[index] = move;
+        scores[index] = score;
+    }
+
+    void copyFrom(RootMoves other) {
+        root = other.root;
+        size = other.size;
+        System.arraycopy(other.moves, 0, moves, 0, size);
+        System.arraycopy(other.scores, 0, scores, 0, size);
+    }
+
+    private void checkRank(int rank) {
+        if (rank < 0 || rank >= size) {
+            throw new IndexOutOfBoundsException("Rank " + rank + " of " + size + " root moves");
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Arrays;
+
+/**
+ * Everything the search needs per ply, allocated once and reused by every node at that ply for the rest of the
+ * episode, so that with the arena option on maxVal and minVal allocate nothing once warmed up:
+ * <ul>
+ * <li>a state slot the child at that ply is copied into, unless searching in place</li>
+ * <li>the GameStateChild handed to maxVal/minVal for that child</li>
+ * <li>a MoveGenerator whose move lists grow to the largest branching factor seen</li>
+ * </ul>
+ * plus one transposition table entry to probe into. A serial search only has one node per ply open at a time, so
+ * frames are indexed by ply and an arena belongs to a single search thread. State slots are made from the first
+ * state that reaches their ply and later pointed at each new turn's position without reallocating, unless the
+ * number of units changed.
+ */
+final class SearchArena {
+    /**
+     * Enough for a 2v2 fight. Larger ones grow the move lists once.
+     */
+    private static final int INITIAL_MOVES = 64;
+
+    private GameState[] states;
+    private GameStateChild[] nodes;
+    private MoveGenerator[] moves;
+    private final TranspositionTable.Entry entry = new TranspositionTable.Entry();
+
+    /**
+     * @param maxDepth The deepest search that will be run. Deeper ones grow the arena.
+     */
+    SearchArena(int maxDepth) {
+        states = new GameState[0];
+        nodes = new GameStateChild[0];
+        moves = new MoveGenerator[0];
+        ensurePly(maxDepth);
+    }
+
+    private void ensurePly(int ply) {
+        if (ply < nodes.length) {
+            return;
+        }
+        int size = Math.max(ply + 1, nodes.length * 2);
+        int old = nodes.length;
+        states = Arrays.copyOf(states, size);
+        nodes = Arrays.copyOf(nodes, size);
+        moves = Arrays.copyOf(moves, size);
+        for (int i = old; i < size; i++) {
+            nodes[i] = new GameStateChild(null, null);
+            moves[i] = new MoveGenerator(INITIAL_MOVES);
+        }
+    }
+
+    /**
+     * @return The move generator of a node at this ply, reset to its state
+     */
+    MoveGenerator moves(int ply, GameState state, long hashMove, MoveOrdering ordering) {
+        ensurePly(ply);
+        return moves[ply].reset(state, hashMove, ordering, ply);
+    }
+
+    /**
+     * @return The node at this ply, holding the given state
+     */
+    GameStateChild node(int ply, GameState state) {
+        ensurePly(ply);
+        GameStateChild node = nodes[ply];
+        node.state = state;
+        return node;
+    }
+
+    /**
+     * @return The node at this ply, holding this ply's state slot set to the child of parent
+     */
+    GameStateChild child(int ply, GameState parent, long jointAction) {
+        GameState state = state(ply, parent);
+        state.setToChild(parent, jointAction);
+        return node(ply, state);
+    }
+
+    /**
+     * child for a joint action given unit by unit, see GameState.getChild(int[])
+     */
+    GameStateChild child(int ply, GameState parent, int[] actions) {
+        GameState state = state(ply, parent);
+        state.setToChild(parent, actions);
+        return node(ply, state);
+    }
+
+    private GameState state(int ply, GameState parent) {
+        ensurePly(ply);
+        GameState state = states[ply];
+        if (state == null) {
+            state = parent.copy();
+            states[ply] = state;
+        }
+        return state;
+    }
+
+    TranspositionTable.Entry entry() {
+        return entry;
+    }
+}
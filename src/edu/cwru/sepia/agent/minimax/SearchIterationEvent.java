@@ -0,0 +1,25 @@
+package edu.cwru.sepia.agent.minimax;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One iteration of a turn's search: the whole search without a time limit, or one depth of iterative deepening
+ */
+@Name("edu.cwru.sepia.minimax.SearchIteration")
+@Label("Minimax Search Iteration")
+@Category({"SEPIA", "Minimax"})
+@Description("The search of the root to one depth")
+final class SearchIterationEvent extends jdk.jfr.Event {
+    @Label("Depth")
+    int depth;
+
+    @Label("Nodes")
+    long nodes;
+
+    @Label("Completed")
+    @Description("False if the deadline interrupted the iteration")
+    boolean completed;
+}
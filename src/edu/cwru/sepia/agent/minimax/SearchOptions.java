@@ -0,0 +1,300 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * Optional agent arguments given after the number of plys, each in the form name=value.
+ * <p>
+ * Supported options:
+ * <ul>
+ * <li>tt=on|off - use the transposition table (default on)</li>
+ * <li>ttBits=n - the transposition table holds 2^n entries (default 20)</li>
+ * <li>timeMs=n - search with iterative deepening until n milliseconds have passed, using the number of plys as
+ * the maximum depth. When absent or 0 the search always runs to the full number of plys.</li>
+ * <li>threads=n - number of threads searching in parallel (default 1)</li>
+ * <li>splitDepth=n - with more than one thread, only nodes at least n plys above the leaves are split between
+ * threads (default 2)</li>
+ * <li>inPlace=on|off - search by making and unmaking moves on a single state instead of copying the state for
+ * every child (default off)</li>
+ * <li>arena=on|off - keep the states, nodes and move lists of each ply in a SearchArena reused by every node and
+ * every turn, so the search does not allocate once warmed up. Needs threads=1. (default off)</li>
+ * <li>factored=on|off - expand the side to move one unit at a time, so each level of the tree branches on one
+ * unit's actions instead of every combination of its side's actions. Sides may have any number of units, though
+ * the transposition table's moves and the move ordering only cover the first 8. The search runs on one thread and
+ * ponders the whole position rather than each reply. A side of more than 8 units, whose joint actions cannot be
+ * listed, is always searched this way, and games with one use engine=minimax on one thread. (default off)</li>
+ * <li>evaluation=incremental|full|check - keep the utility's features up to date as actions are applied, recompute
+ * them for every evaluated state, or do both and fail if they ever differ (default incremental)</li>
+ * <li>history=on|off - order quiet moves by killer moves and the history heuristic before distance (default on)</li>
+ * <li>pvs=on|off - principal variation search: search the first move at each node with the full window and the
+ * rest with a null window, searching them again only if they turn out better. The root is searched with an
+ * aspiration window around the previous score. (default off)</li>
+ * <li>aspiration=n - half width of the aspiration window in utility points, 0 for a full window (default 3)</li>
+ * <li>ponder=on|off - keep searching the archers' likely replies on a background thread between turns
+ * (default off)</li>
+ * <li>stats=on|off - count nodes, leaves, cutoffs and evaluations and time each iteration, see SearchStats. The
+ * totals for the episode are printed in terminalStep. (default off)</li>
+ * <li>verbose=true|false - print search statistics after every middleStep, implies stats=on (default false)</li>
+ * <li>engine=minimax|mcts - search with alpha-beta or with Monte Carlo tree search, see MonteCarloSearch. With
+ * mcts the number of plys, the move ordering and table options and pondering do not apply; threads=n runs n
+ * independent trees whose root visits are added up. (default minimax)</li>
+ * <li>playouts=n - with engine=mcts, the playouts per turn when no timeMs is given (default 10000)</li>
+ * <li>rollout=heuristic|random - with engine=mcts, how the units act during a playout: attacking when they can
+ * and otherwise mostly stepping towards (footmen) or away from (archers) the enemy, or uniformly at random
+ * (default heuristic)</li>
+ * <li>rolloutPlys=n - with engine=mcts, plys played out past the tree before the position is scored
+ * (default 8)</li>
+ * <li>exploration=c - with engine=mcts, the UCT exploration constant (default 0.7)</li>
+ * <li>cache=on|off - keep the result of every finished root search in a PositionCache that savePlayerData writes
+ * and loadPlayerData reads back, and play a cached position's move without searching when it was searched at
+ * least as deep as this search would go. Needs engine=minimax. (default off)</li>
+ * <li>tablebase=dir - probe the endgame tables for one or two footmen against one archer that Tablebase.generate
+ * saved in the directory for the map being played and the prune option's rules, tables made with prune=off for
+ * prune=off and with prune=legal for the others, scoring positions they hold a forced win for exactly. Needs
+ * engine=minimax. (default none)</li>
+ * <li>prune=off|legal|on - with legal, leave out of every node's joint actions those SEPIA would not carry out:
+ * moves onto a cell a unit stands on or onto the same cell as another unit of the side, and attacks on dead
+ * units. With on, also leave out the actions the search should not prefer: moving or waiting when a unit alone
+ * can kill an enemy, and a footman stepping away from the archers when it could safely close in. See
+ * GameState.setPruning. (default off)</li>
+ * <li>lmr=on|off - late move reductions: search quiet moves late in a node's move order, other than killer moves,
+ * a few plys shallower with a null window first, and at full depth only if they turn out better than the best
+ * move so far. Not with factored=on nor on the threads a node is split between. (default off)</li>
+ * <li>lmrBase=b, lmrDivisor=d - the move at index i of a node with n plys left is reduced by
+ * b + ln(n) * ln(i) / d plys, see LateMoveReductions (defaults 0.75 and 2)</li>
+ * <li>lmrDepth=n - plys a node needs left for its moves to be reduced (default 3)</li>
+ * <li>lmrMoves=n - moves of each node searched at full depth before any is reduced (default 2)</li>
+ * <li>batch=on|off - evaluate all the children of a node one ply above the leaves at once with a LeafBatch,
+ * without building their states. The values, and so the search, are the same as evaluating them one by one.
+ * Needs threads=1. (default off)</li>
+ * <li>multiPv=n - find the n best root moves with their exact scores, see RootMoves and
+ * MinimaxAlphaBeta.getRootMoves. The root only cuts off moves that are not among the n best so far, and is
+ * searched with a full window and on one thread. Needs factored=off. (default 1)</li>
+ * </ul>
+ */
+public class SearchOptions {
+    public boolean transpositionTable = true;
+    public int ttBits = 20;
+    public long timeMs = 0;
+    public int threads = 1;
+    public int splitDepth = 2;
+    public boolean inPlace = false;
+    public boolean arena = false;
+    public boolean factored = false;
+    public boolean incrementalEvaluation = true;
+    public boolean checkEvaluation = false;
+    public boolean history = true;
+    public boolean pvs = false;
+    public int aspiration = 3;
+    public boolean ponder = false;
+    public boolean stats = false;
+    public boolean verbose = false;
+    public boolean mcts = false;
+    public int playouts = 10000;
+    public boolean heuristicRollouts = true;
+    public int rolloutPlys = 8;
+    public double exploration = 0.7;
+    public boolean cache = false;
+    public String tablebase = null;
+    public boolean pruneIllegal = false;
+    public boolean pruneDominated = false;
+    public boolean lmr = false;
+    public double lmrBase = 0.75;
+    public double lmrDivisor = 2;
+    public int lmrDepth = 3;
+    public int lmrMoves = 2;
+    public boolean batch = false;
+    public int multiPv = 1;
+
+    /**
+     * @param args The agent arguments. args[0] is the number of plys and is not read here.
+     */
+    public SearchOptions(String[] args) {
+        for (int i = 1; i < args.length; i++) {
+            int split = args[i].indexOf('=');
+            if (split < 0) {
+                fail("Expected name=value but got " + args[i]);
+            }
+            set(args[i].substring(0, split).trim(), args[i].substring(split + 1).trim());
+        }
+        if (arena && threads > 1) {
+            fail("arena=on needs threads=1: the arena's frames belong to a single search thread");
+        }
+        if (batch && threads > 1) {
+            fail("batch=on needs threads=1: the batch's buffers belong to a single search thread");
+        }
+        if (multiPv > 1 && factored) {
+            fail("multiPv=n needs factored=off: the root's joint actions are never listed with factored=on");
+        }
+        if (mcts && ponder) {
+            fail("ponder=on needs engine=minimax");
+        }
+        if (mcts && cache) {
+            fail("cache=on needs engine=minimax");
+        }
+        if (mcts && tablebase != null) {
+            fail("tablebase=dir needs engine=minimax");
+        }
+    }
+
+    private void set(String name, String value) {
+        switch (name) {
+            case "tt":
+                transpositionTable = parseSwitch(name, value);
+                break;
+            case "ttBits":
+                ttBits = parseInt(name, value, 1, 28);
+                break;
+            case "timeMs":
+                timeMs = parseInt(name, value, 0, Integer.MAX_VALUE);
+                break;
+            case "threads":
+                threads = parseInt(name, value, 1, 256);
+                break;
+            case "splitDepth":
+                splitDepth = parseInt(name, value, 1, 64);
+                break;
+            case "inPlace":
+                inPlace = parseSwitch(name, value);
+                break;
+            case "arena":
+                arena = parseSwitch(name, value);
+                break;
+            case "factored":
+                factored = parseSwitch(name, value);
+                break;
+            case "evaluation":
+                if (value.equals("incremental") || value.equals("full") || value.equals("check")) {
+                    incrementalEvaluation = !value.equals("full");
+                    checkEvaluation = value.equals("check");
+                } else {
+                    fail("evaluation must be incremental, full or check but got " + value);
+                }
+                break;
+            case "history":
+                history = parseSwitch(name, value);
+                break;
+            case "pvs":
+                pvs = parseSwitch(name, value);
+                break;
+            case "aspiration":
+                aspiration = parseInt(name, value, 0, Integer.MAX_VALUE);
+                break;
+            case "ponder":
+                ponder = parseSwitch(name, value);
+                break;
+            case "stats":
+                stats = parseSwitch(name, value);
+                break;
+            case "verbose":
+                verbose = parseSwitch(name, value);
+                break;
+            case "engine":
+                if (value.equals("minimax") || value.equals("mcts")) {
+                    mcts = value.equals("mcts");
+                } else {
+                    fail("engine must be minimax or mcts but got " + value);
+                }
+                break;
+            case "playouts":
+                playouts = parseInt(name, value, 1, Integer.MAX_VALUE);
+                break;
+            case "rollout":
+                if (value.equals("heuristic") || value.equals("random")) {
+                    heuristicRollouts = value.equals("heuristic");
+                } else {
+                    fail("rollout must be heuristic or random but got " + value);
+                }
+                break;
+            case "rolloutPlys":
+                rolloutPlys = parseInt(name, value, 0, 10000);
+                break;
+            case "exploration":
+                exploration = parseDouble(name, value);
+                break;
+            case "cache":
+                cache = parseSwitch(name, value);
+                break;
+            case "tablebase":
+                if (value.isEmpty()) {
+                    fail("tablebase must be a directory");
+                }
+                tablebase = value;
+                break;
+            case "prune":
+                if (value.equals("off") || value.equals("legal") || value.equals("on")) {
+                    pruneIllegal = !value.equals("off");
+                    pruneDominated = value.equals("on");
+                } else {
+                    fail("prune must be off, legal or on but got " + value);
+                }
+                break;
+            case "batch":
+                batch = parseSwitch(name, value);
+                break;
+            case "multiPv":
+                multiPv = parseInt(name, value, 1, 64);
+                break;
+            case "lmr":
+                lmr = parseSwitch(name, value);
+                break;
+            case "lmrBase":
+                lmrBase = parseDouble(name, value);
+                break;
+            case "lmrDivisor":
+                lmrDivisor = parseDouble(name, value);
+                if (lmrDivisor == 0) {
+                    fail("lmrDivisor must be above 0");
+                }
+                break;
+            case "lmrDepth":
+                lmrDepth = parseInt(name, value, 2, 64);
+                break;
+            case "lmrMoves":
+                lmrMoves = parseInt(name, value, 1, 64);
+                break;
+            default:
+                fail("Unknown option " + name);
+        }
+    }
+
+    private static boolean parseSwitch(String name, String value) {
+        if (value.equals("on") || value.equals("true")) {
+            return true;
+        }
+        if (value.equals("off") || value.equals("false")) {
+            return false;
+        }
+        fail(name + " must be on or off but got " + value);
+        return false;
+    }
+
+    private static int parseInt(String name, String value, int min, int max) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed >= min && parsed <= max) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        fail(name + " must be an integer between " + min + " and " + max + " but got " + value);
+        return min;
+    }
+
+    private static double parseDouble(String name, String value) {
+        try {
+            double parsed = Double.parseDouble(value);
+            if (parsed >= 0 && !Double.isInfinite(parsed)) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        fail(name + " must be a number of at least 0 but got " + value);
+        return 0;
+    }
+
+    private static void fail(String message) {
+        System.err.println(message);
+        System.exit(1);
+    }
+}
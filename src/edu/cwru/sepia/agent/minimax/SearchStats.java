@@ -0,0 +1,381 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timings of the search, kept per turn and summed over the episode. Only exists when the stats
+ * option is on; the search checks for null before every update so that it costs nothing when off.
+ * <p>
+ * The per node counters may be updated by several search threads at once. Turns and iterations are only started
+ * and ended by the thread running middleStep.
+ * <p>
+ * Every turn and every iteration of iterative deepening is also committed as a JFR event, see SearchTurnEvent
+ * and SearchIterationEvent, so a flight recording shows the search next to GC and allocation activity.
+ */
+public class SearchStats {
+    /**
+     * Cutoffs caused by the child at this index or later share the last bucket
+     */
+    public static final int CUTOFF_BUCKETS = 8;
+
+    private final LongAdder nodes = new LongAdder();
+    private final LongAdder leaves = new LongAdder();
+    private final LongAdder utilityEvaluations = new LongAdder();
+    private final LongAdder childrenGenerated = new LongAdder();
+    private final LongAdder statesBuilt = new LongAdder();
+    private final LongAdder tableCutoffs = new LongAdder();
+    private final LongAdder researches = new LongAdder();
+    private final LongAdder tablebaseHits = new LongAdder();
+    private final LongAdder reductions = new LongAdder();
+    private final LongAdder[] cutoffs = new LongAdder[CUTOFF_BUCKETS];
+
+    private long turnStart;
+    private long turnNanos;
+    private int completedDepth;
+    private long[] iterationNanos = new long[0];
+    private long[] iterationNodes = new long[0];
+    private SearchTurnEvent turnEvent;
+    private SearchIterationEvent iterationEvent;
+    private long iterationStart;
+    private long iterationStartNodes;
+
+    private int episodeTurns;
+    private long episodeNodes;
+    private long episodeLeaves;
+    private long episodeNanos;
+    private long longestTurnNanos;
+    private long episodeDepths;
+    private final long[] episodeCutoffs = new long[CUTOFF_BUCKETS];
+    private int ponderedTurns;
+    private int ponderHits;
+
+    public SearchStats() {
+        for (int i = 0; i < CUTOFF_BUCKETS; i++) {
+            cutoffs[i] = new LongAdder();
+        }
+        // the first event created loads JFR, which takes a few hundred ms; do it here rather than in the first
+        // turn's time budget
+        SearchTurnEvent event = new SearchTurnEvent();
+        event.begin();
+        event.end();
+        event.shouldCommit();
+    }
+
+    void node() {
+        nodes.increment();
+    }
+
+    /**
+     * @param evaluated Whether the leaf's utility had to be computed rather than read from the state
+     */
+    void leaf(boolean evaluated) {
+        leaves.increment();
+        if (evaluated) {
+            utilityEvaluations.increment();
+        }
+    }
+
+    void childrenGenerated(int count) {
+        childrenGenerated.add(count);
+    }
+
+    void stateBuilt() {
+        statesBuilt.increment();
+    }
+
+    /**
+     * A node answered by the transposition table without searching its children
+     */
+    void tableCutoff() {
+        tableCutoffs.increment();
+    }
+
+    /**
+     * A node answered by the endgame tablebase
+     */
+    void tablebaseHit() {
+        tablebaseHits.increment();
+    }
+
+    /**
+     * A null window or aspiration search that failed and had to be repeated with a wider window
+     */
+    void research() {
+        researches.increment();
+    }
+
+    /**
+     * A late move searched with a reduced depth, see LateMoveReductions. A re-search at full depth counts as a
+     * research.
+     */
+    void reduction() {
+        reductions.increment();
+    }
+
+    /**
+     * @param index Position of the child that caused the cutoff in the search order
+     */
+    void cutoff(int index) {
+        cutoffs[Math.min(index, CUTOFF_BUCKETS - 1)].increment();
+    }
+
+    /**
+     * Resets the per turn counters
+     *
+     * @param maxDepth The deepest iteration the turn can run
+     */
+    void startTurn(int maxDepth) {
+        nodes.reset();
+        leaves.reset();
+        utilityEvaluations.reset();
+        childrenGenerated.reset();
+        statesBuilt.reset();
+        tableCutoffs.reset();
+        researches.reset();
+        tablebaseHits.reset();
+        reductions.reset();
+        for (LongAdder cutoff : cutoffs) {
+            cutoff.reset();
+        }
+        if (iterationNanos.length != maxDepth + 1) {
+            iterationNanos = new long[maxDepth + 1];
+            iterationNodes = new long[maxDepth + 1];
+        } else {
+            Arrays.fill(iterationNanos, 0);
+            Arrays.fill(iterationNodes, 0);
+        }
+        completedDepth = 0;
+        turnEvent = new SearchTurnEvent();
+        turnEvent.begin();
+        turnStart = System.nanoTime();
+    }
+
+    void startIteration(int depth) {
+        iterationEvent = new SearchIterationEvent();
+        iterationEvent.begin();
+        iterationStart = System.nanoTime();
+        iterationStartNodes = nodes.sum() + leaves.sum();
+    }
+
+    /**
+     * @param completed False if the deadline interrupted the iteration
+     */
+    void endIteration(int depth, boolean completed) {
+        long iterationNodeCount = nodes.sum() + leaves.sum() - iterationStartNodes;
+        iterationNanos[depth] = System.nanoTime() - iterationStart;
+        iterationNodes[depth] = iterationNodeCount;
+        if (completed) {
+            completedDepth = depth;
+        }
+        iterationEvent.end();
+        if (iterationEvent.shouldCommit()) {
+            iterationEvent.depth = depth;
+            iterationEvent.nodes = iterationNodeCount;
+            iterationEvent.completed = completed;
+            iterationEvent.commit();
+        }
+        iterationEvent = null;
+    }
+
+    /**
+     * Adds the turn to the episode totals
+     *
+     * @param table The transposition table or null
+     */
+    void endTurn(TranspositionTable table) {
+        turnNanos = System.nanoTime() - turnStart;
+        episodeTurns++;
+        episodeNodes += getNodes();
+        episodeLeaves += getLeaves();
+        episodeNanos += turnNanos;
+        longestTurnNanos = Math.max(longestTurnNanos, turnNanos);
+        episodeDepths += completedDepth;
+        for (int i = 0; i < CUTOFF_BUCKETS; i++) {
+            episodeCutoffs[i] += cutoffs[i].sum();
+        }
+
+        turnEvent.end();
+        if (turnEvent.shouldCommit()) {
+            turnEvent.depth = completedDepth;
+            turnEvent.nodes = getNodes();
+            turnEvent.leaves = getLeaves();
+            turnEvent.utilityEvaluations = getUtilityEvaluations();
+            turnEvent.childrenGenerated = getChildrenGenerated();
+            turnEvent.cutoffs = getCutoffs();
+            turnEvent.firstMoveCutoffs = getCutoffs(0);
+            if (table != null) {
+                turnEvent.tableProbes = table.getProbes();
+                turnEvent.tableHits = table.getHits();
+            }
+            turnEvent.effectiveBranchingFactor = getEffectiveBranchingFactor();
+            turnEvent.commit();
+        }
+        turnEvent = null;
+    }
+
+    /**
+     * @param hit Whether the state the turn started from was one the ponder thread had finished searching
+     */
+    void ponderResult(boolean hit) {
+        ponderedTurns++;
+        if (hit) {
+            ponderHits++;
+        }
+    }
+
+    /**
+     * Forgets the episode totals
+     */
+    void startEpisode() {
+        episodeTurns = 0;
+        episodeNodes = 0;
+        episodeLeaves = 0;
+        episodeNanos = 0;
+        longestTurnNanos = 0;
+        episodeDepths = 0;
+        Arrays.fill(episodeCutoffs, 0);
+        ponderedTurns = 0;
+        ponderHits = 0;
+    }
+
+    /**
+     * @return Interior nodes visited this turn
+     */
+    public long getNodes() {
+        return nodes.sum();
+    }
+
+    /**
+     * @return Nodes at depth 0 this turn
+     */
+    public long getLeaves() {
+        return leaves.sum();
+    }
+
+    public long getUtilityEvaluations() {
+        return utilityEvaluations.sum();
+    }
+
+    public long getChildrenGenerated() {
+        return childrenGenerated.sum();
+    }
+
+    public long getStatesBuilt() {
+        return statesBuilt.sum();
+    }
+
+    public long getTableCutoffs() {
+        return tableCutoffs.sum();
+    }
+
+    public long getResearches() {
+        return researches.sum();
+    }
+
+    public long getTablebaseHits() {
+        return tablebaseHits.sum();
+    }
+
+    public long getReductions() {
+        return reductions.sum();
+    }
+
+    public long getCutoffs() {
+        long total = 0;
+        for (LongAdder cutoff : cutoffs) {
+            total += cutoff.sum();
+        }
+        return total;
+    }
+
+    /**
+     * @param index Position in the search order of the child that caused the cutoff, where the last bucket
+     *              counts every later child too
+     */
+    public long getCutoffs(int index) {
+        return cutoffs[index].sum();
+    }
+
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    public long getTurnNanos() {
+        return turnNanos;
+    }
+
+    /**
+     * @return How long the iteration to the given depth took this turn, or 0 if it did not run
+     */
+    public long getIterationNanos(int depth) {
+        return depth < iterationNanos.length ? iterationNanos[depth] : 0;
+    }
+
+    /**
+     * @return The branching factor of a uniform tree with as many nodes as this turn searched to the completed
+     * depth
+     */
+    public double getEffectiveBranchingFactor() {
+        if (completedDepth == 0) {
+            return 0;
+        }
+        return Math.pow(iterationNodes[completedDepth], 1.0 / completedDepth);
+    }
+
+    /**
+     * @return One line describing the turn that just ended
+     */
+    public String getTurnSummary(TranspositionTable table) {
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format("Searched %d nodes and %d leaves to depth %d in %.3fs (%.0f nodes/s)",
+                getNodes(), getLeaves(), completedDepth, turnNanos / 1e9, (getNodes() + getLeaves()) / (turnNanos / 1e9)));
+        summary.append(String.format(", effective branching factor %.2f", getEffectiveBranchingFactor()));
+        summary.append(String.format(", built %d of %d child states, %d utility evaluations",
+                getStatesBuilt(), getChildrenGenerated(), getUtilityEvaluations()));
+        summary.append(String.format(", %.1f%% of %d cutoffs on the first move, %d re-searches",
+                100.0 * getCutoffs(0) / Math.max(1, getCutoffs()), getCutoffs(), getResearches()));
+        if (table != null) {
+            summary.append(String.format(", transposition table hit rate %.1f%% (%d/%d), %d cutoffs",
+                    100 * table.getHitRate(), table.getHits(), table.getProbes(), getTableCutoffs()));
+        }
+        if (getTablebaseHits() > 0) {
+            summary.append(String.format(", %d tablebase hits", getTablebaseHits()));
+        }
+        if (getReductions() > 0) {
+            summary.append(String.format(", %d late move reductions", getReductions()));
+        }
+        summary.append(", iterations");
+        for (int depth = 1; depth < iterationNanos.length; depth++) {
+            if (iterationNanos[depth] > 0) {
+                summary.append(String.format(" %d:%.1fms", depth, iterationNanos[depth] / 1e6));
+            }
+        }
+        return summary.toString();
+    }
+
+    /**
+     * @return One line describing every turn since the episode started
+     */
+    public String getEpisodeSummary() {
+        StringBuilder summary = new StringBuilder();
+        double seconds = episodeNanos / 1e9;
+        summary.append(String.format("Episode: %d turns, %d nodes and %d leaves in %.3fs (%.0f nodes/s)",
+                episodeTurns, episodeNodes, episodeLeaves, seconds, (episodeNodes + episodeLeaves) / seconds));
+        summary.append(String.format(", longest turn %.1fms, average depth %.1f",
+                longestTurnNanos / 1e6, (double) episodeDepths / Math.max(1, episodeTurns)));
+        long total = 0;
+        for (long cutoff : episodeCutoffs) {
+            total += cutoff;
+        }
+        if (ponderedTurns > 0) {
+            summary.append(String.format(", pondered the reply played on %d of %d turns", ponderHits, ponderedTurns));
+        }
+        summary.append(", cutoffs by child index");
+        for (int i = 0; i < CUTOFF_BUCKETS; i++) {
+            summary.append(String.format(" %d%s:%.1f%%", i, i == CUTOFF_BUCKETS - 1 ? "+" : "",
+                    100.0 * episodeCutoffs[i] / Math.max(1, total)));
+        }
+        return summary.toString();
+    }
+}
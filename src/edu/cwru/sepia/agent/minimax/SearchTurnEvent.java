@@ -0,0 +1,46 @@
+package edu.cwru.sepia.agent.minimax;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One middleStep's search, committed by SearchStats when the stats option is on and a recording has the event
+ * enabled
+ */
+@Name("edu.cwru.sepia.minimax.SearchTurn")
+@Label("Minimax Search Turn")
+@Category({"SEPIA", "Minimax"})
+@Description("The search for one turn's joint action")
+final class SearchTurnEvent extends jdk.jfr.Event {
+    @Label("Completed Depth")
+    int depth;
+
+    @Label("Nodes")
+    long nodes;
+
+    @Label("Leaves")
+    long leaves;
+
+    @Label("Utility Evaluations")
+    long utilityEvaluations;
+
+    @Label("Children Generated")
+    long childrenGenerated;
+
+    @Label("Cutoffs")
+    long cutoffs;
+
+    @Label("First Move Cutoffs")
+    long firstMoveCutoffs;
+
+    @Label("Transposition Table Probes")
+    long tableProbes;
+
+    @Label("Transposition Table Hits")
+    long tableHits;
+
+    @Label("Effective Branching Factor")
+    double effectiveBranchingFactor;
+}
@@ -0,0 +1,73 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * Shared state of a node whose remaining children are being searched by several threads at once
+ * (young brothers wait). The eldest child has already been searched serially and seeds the best value.
+ * <p>
+ * Every sibling that finishes tightens the window seen by siblings that have not started yet, and once one of
+ * them causes a cutoff the rest are skipped.
+ */
+final class SplitPoint {
+    private final boolean maximizing;
+    private double alpha, beta;
+    private double value;
+    private long move;
+
+    /**
+     * @param maximizing Whether this is a maxVal node
+     * @param alpha The node's alpha after the eldest child
+     * @param beta The node's beta after the eldest child
+     * @param value The eldest child's value
+     * @param move The eldest child's JointAction
+     */
+    SplitPoint(boolean maximizing, double alpha, double beta, double value, long move) {
+        this.maximizing = maximizing;
+        this.alpha = alpha;
+        this.beta = beta;
+        this.value = value;
+        this.move = move;
+    }
+
+    boolean isMaximizing() {
+        return maximizing;
+    }
+
+    synchronized double getAlpha() {
+        return alpha;
+    }
+
+    synchronized double getBeta() {
+        return beta;
+    }
+
+    synchronized double getValue() {
+        return value;
+    }
+
+    synchronized long getMove() {
+        return move;
+    }
+
+    synchronized boolean isCutoff() {
+        return alpha >= beta;
+    }
+
+    /**
+     * Records the value of a finished sibling
+     */
+    synchronized void report(double childValue, long childMove) {
+        if (maximizing) {
+            if (childValue > value) {
+                value = childValue;
+                move = childMove;
+            }
+            alpha = Math.max(alpha, value);
+        } else {
+            if (childValue < value) {
+                value = childValue;
+                move = childMove;
+            }
+            beta = Math.min(beta, value);
+        }
+    }
+}
@@ -0,0 +1,496 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Endgame tables for one or two footmen against one archer on one map, built offline by retrograde analysis and
+ * probed by the search, which then scores the position as the exact forced win it is.
+ * <p>
+ * A table holds, for every placement of the units on the open cells, every number of hits the archer has taken
+ * and either side to move, the number of plys to the footmen's quickest forced win, or 0 if they have none within
+ * MAX_DISTANCE plys. The footmen's hp is left out of the index: the tables are solved as if the archer's arrows did
+ * no harm, which is exact wherever no footman can die before the win. Units move and attack independently, so
+ * arrows change nothing but hp; a probe is only answered when every living footman has more hp than the archer can
+ * take from it in the turns the win takes, and otherwise left to the search. Positions the archer can escape or
+ * win are not told apart, and are left to the search too.
+ * <p>
+ * Moves are the search's, see GameState.getJointActions, under the pruning of the state the tables are made from:
+ * the first living unit of a side always acts, so the first footman only stands still to attack, and with illegal
+ * actions pruned no unit moves onto a cell a living unit stands on or that another unit of its side moves onto.
+ * Dead units are not in the tables, so where they would add actions the tables keep to the safe side. Without
+ * pruning, the archer may stand still by shooting a dead footman, so the tables always let it stand still; the
+ * footmen's shots at dead archers are left out. A win in the tables is then a win in the search, and with pruning
+ * the tables are exact. prune=on's forward pruning is not modelled, as the tables hold the position's value. The
+ * rules are part of getKey, so each kind of pruning has its own files.
+ * <p>
+ * Generation starts from the wins in one ply, footmen in reach with enough hits between them to kill the archer,
+ * and works backwards a ply at a time: a footmen to move position is won in d + 1 once any move leads to an archer
+ * to move position won in d, and an archer to move position once every one of its moves leads to a won position,
+ * counted down per position as they are found.
+ * <p>
+ * Tables are tied to the map and the units' stats through getKey and saved one per number of footmen as
+ * fileName(key, footmen): a header, the footmen to move table then the archer to move table, one byte per
+ * position. The search maps the files rather than reading them.
+ */
+public final class Tablebase {
+    public static final int MAX_DISTANCE = 255;
+
+    private static final int MAGIC = 0x54424C32;
+    /**
+     * What a footman does in a joint action, see markFootmenMoves
+     */
+    private static final int MOVE = 0, ATTACK = 1, WAIT = 2;
+    /**
+     * magic, key, number of footmen, open cells, archer hp levels
+     */
+    private static final int HEADER_SIZE = 24;
+
+    private final long key;
+    /**
+     * Whether units keep to their own cells, as GameState has them with illegal actions pruned
+     */
+    private final boolean exclusive;
+    private final int width;
+    /**
+     * Index of each cell (x + y * width) among the open cells, or -1 for trees
+     */
+    private final int[] cellIndex;
+    private final int cells;
+    /**
+     * The open cells next to each open cell, by index
+     */
+    private final int[][] neighbours;
+    /**
+     * footmanReach[footman cell * cells + archer cell]
+     */
+    private final boolean[] footmanReach;
+    /**
+     * archerReach[archer cell * cells + footman cell]
+     */
+    private final boolean[] archerReach;
+    private final int footmanDamage, archerHp, archerDamage;
+    /**
+     * Hits from a footman that kill the archer
+     */
+    private final int levels;
+    /**
+     * Loaded tables by number of footmen
+     */
+    private final ByteBuffer[] tables = new ByteBuffer[3];
+
+    /**
+     * @param state Any position of the map, with every footman alike and every archer alike, pruned as the tables'
+     *              rules should be, see setPruning
+     * @throws IllegalArgumentException If the units are not alike or the map has too many open cells
+     */
+    Tablebase(GameState state) {
+        int numFootmen = state.getNumFootmen();
+        int numUnits = state.getNumUnits();
+        if (numFootmen == 0 || numFootmen == numUnits) {
+            throw new IllegalArgumentException("Tables need footmen and archers");
+        }
+        for (int slot = 1; slot < numUnits; slot++) {
+            int like = slot < numFootmen ? 0 : numFootmen;
+            if (state.getUnitDamage(slot) != state.getUnitDamage(like) ||
+                    state.getUnitRange(slot) != state.getUnitRange(like) ||
+                    slot >= numFootmen && state.getUnitMaxHp(slot) != state.getUnitMaxHp(like)) {
+                throw new IllegalArgumentException("Tables need every footman alike and every archer alike");
+            }
+        }
+        footmanDamage = state.getUnitDamage(0);
+        archerHp = state.getUnitMaxHp(numFootmen);
+        archerDamage = state.getUnitDamage(numFootmen);
+        levels = (archerHp + footmanDamage - 1) / footmanDamage;
+
+        width = state.getWidth();
+        int height = state.getHeight();
+        cellIndex = new int[width * height];
+        int[] cellAt = new int[width * height];
+        int count = 0;
+        long hash = Zobrist.layout(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (state.isOpen(x, y)) {
+                    cellAt[count] = x + y * width;
+                    cellIndex[x + y * width] = count++;
+                } else {
+                    cellIndex[x + y * width] = -1;
+                    hash = Zobrist.fold(hash, x + y * width);
+                }
+            }
+        }
+        if ((long) count * count * count * levels > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many open cells for two footmen's tables");
+        }
+        cells = count;
+        exclusive = state.isPruningIllegal();
+        key = Zobrist.fold(Zobrist.fold(Zobrist.fold(Zobrist.fold(Zobrist.fold(Zobrist.fold(hash, footmanDamage),
+                state.getUnitRange(0)), archerHp), archerDamage), state.getUnitRange(numFootmen)), exclusive ? 2 : 1);
+
+        neighbours = new int[cells][];
+        footmanReach = new boolean[cells * cells];
+        archerReach = new boolean[cells * cells];
+        int[] scratch = new int[4];
+        for (int i = 0; i < cells; i++) {
+            int x = cellAt[i] % width;
+            int y = cellAt[i] / width;
+            int n = 0;
+            for (int direction = 0; direction < 4; direction++) {
+                int toX = x + JointAction.direction(direction).xComponent();
+                int toY = y + JointAction.direction(direction).yComponent();
+                if (state.isOpen(toX, toY)) {
+                    scratch[n++] = cellIndex[toX + toY * width];
+                }
+            }
+            neighbours[i] = Arrays.copyOf(scratch, n);
+            for (int j = 0; j < cells; j++) {
+                int dx = cellAt[j] % width - x;
+                int dy = cellAt[j] / width - y;
+                footmanReach[i * cells + j] = state.canReach(0, dx, dy);
+                archerReach[j * cells + i] = state.canReach(numFootmen, -dx, -dy);
+            }
+        }
+    }
+
+    /**
+     * Identifies the map, the units' stats and the rules the tables are for. Unit ids, numbers and places do not
+     * matter.
+     */
+    long getKey() {
+        return key;
+    }
+
+    /**
+     * @return The name of the table file for one or two footmen against one archer
+     */
+    static String fileName(long key, int footmen) {
+        return String.format("%016x-%dv1.tb", key, footmen);
+    }
+
+    /**
+     * Solves the tables for one or two footmen against one archer on the map, with the units and under the pruning
+     * of the state, and saves them in the directory under fileName
+     *
+     * @return The file written
+     */
+    public static File generate(GameState state, int footmen, File directory) throws IOException {
+        Tablebase tablebase = new Tablebase(state);
+        File file = new File(directory, fileName(tablebase.key, footmen));
+        try (OutputStream out = new FileOutputStream(file)) {
+            tablebase.generate(footmen, out);
+        }
+        return file;
+    }
+
+    /**
+     * Solves the tables for one or two footmen against one archer and writes them to the stream
+     */
+    void generate(int footmen, OutputStream os) throws IOException {
+        if (footmen != 1 && footmen != 2) {
+            throw new IllegalArgumentException("Tables are for one or two footmen");
+        }
+        int placements = footmen == 1 ? cells : cells * cells;
+        int size = placements * cells * levels;
+        byte[] footmenToMove = new byte[size];
+        byte[] archerToMove = new byte[size];
+        byte[] remaining = new byte[size];
+        int[] f = new int[2];
+        int[] archerCells = new int[5];
+
+        for (int placement = 0; placement < placements; placement++) {
+            placementCells(placement, footmen, f);
+            for (int a = 0; a < cells; a++) {
+                int options = archerOptions(f, footmen, a, archerCells);
+                int hits = hitsAvailable(f, footmen, a);
+                // the others shoot while the first footman, if out of reach, steps anywhere
+                boolean canShoot = footmanReach[f[0] * cells + a] || neighbours[f[0]].length > 0;
+                for (int k = 0; k < levels; k++) {
+                    int index = (placement * cells + a) * levels + k;
+                    remaining[index] = (byte) options;
+                    if (k + hits >= levels && canShoot) {
+                        footmenToMove[index] = 1;
+                    }
+                }
+            }
+        }
+
+        int[] from = new int[2];
+        int[] acts = new int[2];
+        for (int d = 1; d < MAX_DISTANCE; d++) {
+            boolean found = false;
+            byte[] layer = d % 2 == 1 ? footmenToMove : archerToMove;
+            for (int placement = 0; placement < placements; placement++) {
+                placementCells(placement, footmen, f);
+                for (int a = 0; a < cells; a++) {
+                    for (int k = 0; k < levels; k++) {
+                        if ((layer[(placement * cells + a) * levels + k] & 0xFF) != d) {
+                            continue;
+                        }
+                        found = true;
+                        if (d % 2 == 1) {
+                            // the archer's moves into this position
+                            for (int before : neighbours[a]) {
+                                if (archerCanGo(f, footmen, before, a, archerCells)) {
+                                    countDown(archerToMove, remaining, (placement * cells + before) * levels + k,
+                                            d + 1);
+                                }
+                            }
+                            if (archerCanGo(f, footmen, a, a, archerCells)) {
+                                countDown(archerToMove, remaining, (placement * cells + a) * levels + k, d + 1);
+                            }
+                        } else {
+                            markFootmenMoves(footmenToMove, f, from, acts, footmen, 0, a, k, d + 1);
+                        }
+                    }
+                }
+            }
+            if (!found) {
+                break;
+            }
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+        out.writeInt(MAGIC);
+        out.writeLong(key);
+        out.writeInt(footmen);
+        out.writeInt(cells);
+        out.writeInt(levels);
+        out.write(footmenToMove);
+        out.write(archerToMove);
+        out.flush();
+    }
+
+    private static void countDown(byte[] archerToMove, byte[] remaining, int index, int d) {
+        if (archerToMove[index] == 0 && --remaining[index] == 0) {
+            archerToMove[index] = (byte) d;
+        }
+    }
+
+    /**
+     * Writes the cells the archer on a can end its turn on with the footmen on f, as GameState lists its actions:
+     * its steps, then its own cell if it can shoot
+     *
+     * @return The number of cells written
+     */
+    private int archerOptions(int[] f, int footmen, int a, int[] options) {
+        // without pruning it may shoot a dead footman, which the tables do not see
+        boolean shoots = !exclusive;
+        for (int i = 0; i < footmen; i++) {
+            shoots |= archerReach[a * cells + f[i]];
+        }
+        int count = 0;
+        for (int next : neighbours[a]) {
+            if (!exclusive || !isFootmanOn(f, footmen, next)) {
+                options[count++] = next;
+            }
+        }
+        if (shoots) {
+            options[count++] = a;
+        }
+        if (count == 0) {
+            // an archer pruning leaves no action keeps them all, and may shoot a dead footman
+            for (int next : neighbours[a]) {
+                options[count++] = next;
+            }
+            options[count++] = a;
+        }
+        return count;
+    }
+
+    private boolean archerCanGo(int[] f, int footmen, int from, int to, int[] scratch) {
+        for (int i = 0, n = archerOptions(f, footmen, from, scratch); i < n; i++) {
+            if (scratch[i] == to) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isFootmanOn(int[] f, int footmen, int cell) {
+        return f[0] == cell || footmen == 2 && f[1] == cell;
+    }
+
+    /**
+     * Marks won in d every footmen to move position with a move leading to the archer to move position with the
+     * footmen on f, the archer on a and k hits taken, choosing where footmen i and up came from and what they did
+     */
+    private void markFootmenMoves(byte[] footmenToMove, int[] f, int[] from, int[] acts, int footmen, int i, int a,
+                                  int k, int d) {
+        if (i == footmen) {
+            if (!isFootmenAction(from, f, acts, footmen, a)) {
+                return;
+            }
+            int placement = footmen == 1 ? from[0] : from[0] * cells + from[1];
+            int index = (placement * cells + a) * levels + k;
+            if (footmenToMove[index] == 0) {
+                footmenToMove[index] = (byte) d;
+            }
+            return;
+        }
+        for (int before : neighbours[f[i]]) {
+            from[i] = before;
+            acts[i] = MOVE;
+            markFootmenMoves(footmenToMove, f, from, acts, footmen, i + 1, a, k, d);
+        }
+        from[i] = f[i];
+        if (footmanReach[f[i] * cells + a] && k > 0) {
+            acts[i] = ATTACK;
+            markFootmenMoves(footmenToMove, f, from, acts, footmen, i + 1, a, k - 1, d);
+        }
+        acts[i] = WAIT;
+        markFootmenMoves(footmenToMove, f, from, acts, footmen, i + 1, a, k, d);
+    }
+
+    /**
+     * Whether GameState lists the footmen's joint action that takes them from the cells from to the cells f, with
+     * the archer on a and footman i's part in acts[i]
+     */
+    private boolean isFootmenAction(int[] from, int[] f, int[] acts, int footmen, int a) {
+        // the first footman always acts
+        if (acts[0] == WAIT) {
+            return false;
+        }
+        if (!exclusive) {
+            return true;
+        }
+        for (int i = 0; i < footmen; i++) {
+            if (acts[i] != MOVE) {
+                continue;
+            }
+            boolean occupied = f[i] == a || footmen == 2 && from[1 - i] == f[i];
+            if (occupied && (i > 0 || !isBoxedIn(from, footmen, a))) {
+                return false;
+            }
+            if (i == 1 && acts[0] == MOVE && f[0] == f[1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether pruning leaves the first footman no action, so that it keeps them all
+     */
+    private boolean isBoxedIn(int[] from, int footmen, int a) {
+        if (footmanReach[from[0] * cells + a]) {
+            return false;
+        }
+        for (int next : neighbours[from[0]]) {
+            if (next != a && (footmen == 1 || next != from[1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void placementCells(int placement, int footmen, int[] f) {
+        if (footmen == 1) {
+            f[0] = placement;
+        } else {
+            f[0] = placement / cells;
+            f[1] = placement % cells;
+        }
+    }
+
+    private int hitsAvailable(int[] f, int footmen, int a) {
+        int hits = 0;
+        for (int i = 0; i < footmen; i++) {
+            if (footmanReach[f[i] * cells + a]) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Maps the tables for one or two footmen from the directory, if fileName(getKey(), footmen) is there
+     *
+     * @return Whether the file was there
+     * @throws IOException If it is there but is not a table for this map and these units
+     */
+    boolean load(File directory, int footmen) throws IOException {
+        File file = new File(directory, fileName(key, footmen));
+        if (!file.isFile()) {
+            return false;
+        }
+        ByteBuffer buffer;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+        }
+        int placements = footmen == 1 ? cells : cells * cells;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getLong(4) != key ||
+                buffer.getInt(12) != footmen || buffer.getInt(16) != cells || buffer.getInt(20) != levels ||
+                buffer.capacity() != HEADER_SIZE + 2L * placements * cells * levels) {
+            throw new IOException(file + " is not a table for this map");
+        }
+        tables[footmen] = buffer;
+        return true;
+    }
+
+    /**
+     * @return The number of plys to the footmen's quickest forced win, or 0 if the tables do not give one: the
+     * position is not one or two footmen against one archer, its table is not loaded, the footmen have no forced
+     * win or a footman might die on the way
+     */
+    int probe(GameState state) {
+        int numFootmen = state.getNumFootmen();
+        int footmen = 0;
+        int first = -1;
+        int second = -1;
+        for (int slot = 0; slot < numFootmen; slot++) {
+            if (state.getUnitHp(slot) > 0) {
+                if (++footmen > 2) {
+                    return 0;
+                }
+                if (first < 0) {
+                    first = slot;
+                } else {
+                    second = slot;
+                }
+            }
+        }
+        int archer = -1;
+        for (int slot = numFootmen, n = state.getNumUnits(); slot < n; slot++) {
+            if (state.getUnitHp(slot) > 0) {
+                if (archer >= 0) {
+                    return 0;
+                }
+                archer = slot;
+            }
+        }
+        if (footmen == 0 || archer < 0 || tables[footmen] == null) {
+            return 0;
+        }
+        int lost = archerHp - state.getUnitHp(archer);
+        if (lost % footmanDamage != 0) {
+            return 0;
+        }
+        int placement = cellOf(state, first);
+        if (footmen == 2) {
+            placement = placement * cells + cellOf(state, second);
+        }
+        int index = (placement * cells + cellOf(state, archer)) * levels + lost / footmanDamage;
+        int size = (footmen == 1 ? cells : cells * cells) * cells * levels;
+        ByteBuffer table = tables[footmen];
+        int d = table.get(HEADER_SIZE + (state.isPlayerTurn() ? 0 : size) + index) & 0xFF;
+        // the archer gets d / 2 turns before the win whichever side is to move
+        int harm = archerDamage * (d / 2);
+        if (d == 0 || state.getUnitHp(first) <= harm || second >= 0 && state.getUnitHp(second) <= harm) {
+            return 0;
+        }
+        return d;
+    }
+
+    private int cellOf(GameState state, int slot) {
+        return cellIndex[state.getUnitX(slot) + state.getUnitY(slot) * width];
+    }
+}
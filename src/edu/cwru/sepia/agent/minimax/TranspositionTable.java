@@ -0,0 +1,137 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed size transposition table indexed by the low bits of a GameState's zobrist hash.
+ * <p>
+ * When two positions land in the same slot the deeper search wins, except that entries left over from an earlier
+ * middleStep are always replaced.
+ * <p>
+ * Entries live in one long[] with SLOT_SIZE longs per slot, so storing never allocates. The table is shared by
+ * all search threads without locking: the first long of a slot holds the key xor the other three, and a probe
+ * that reads a slot halfway through another thread's store sees a key that does not match and misses. Racing
+ * stores to one slot may let the shallower entry win, which only costs a little search effort.
+ */
+public class TranspositionTable {
+    public static final byte EXACT = 0;
+    public static final byte LOWER = 1;
+    public static final byte UPPER = 2;
+
+    /**
+     * Slot layout: key ^ value ^ move ^ info, value as double bits, move, info. info packs the depth (low 16
+     * bits), the bound (next 8) and the generation (high 32); a depth of 0 marks an empty slot.
+     */
+    private static final int CHECK = 0, VALUE = 1, MOVE = 2, INFO = 3, SLOT_SIZE = 4;
+
+    /**
+     * A searched position, filled in by probe. The move is a JointAction, or JointAction.NONE when no child was
+     * better than the window (an upper bound).
+     */
+    public static final class Entry {
+        public long key;
+        public double value;
+        public int depth;
+        public byte bound;
+        public long move;
+    }
+
+    private final int mask;
+    private final long[] slots;
+
+    private volatile int generation = 0;
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+
+    /**
+     * @param bits log2 of the number of entries
+     */
+    public TranspositionTable(int bits) {
+        slots = new long[SLOT_SIZE << bits];
+        mask = (1 << bits) - 1;
+    }
+
+    /**
+     * Marks every current entry as stale. Stale entries are still returned by probe but are replaced first.
+     */
+    public void newSearch() {
+        generation++;
+    }
+
+    /**
+     * Empties the table
+     */
+    public void clear() {
+        Arrays.fill(slots, 0L);
+    }
+
+    /**
+     * @param key   Zobrist hash of the position
+     * @param entry Filled in with the stored entry when there is one
+     * @return Whether the position is in the table
+     */
+    public boolean probe(long key, Entry entry) {
+        probes.increment();
+        int slot = ((int) key & mask) * SLOT_SIZE;
+        long value = slots[slot + VALUE];
+        long move = slots[slot + MOVE];
+        long info = slots[slot + INFO];
+        if ((info & 0xFFFF) == 0 || (slots[slot + CHECK] ^ value ^ move ^ info) != key) {
+            return false;
+        }
+        hits.increment();
+        entry.key = key;
+        entry.value = Double.longBitsToDouble(value);
+        entry.depth = (int) (info & 0xFFFF);
+        entry.bound = (byte) (info >>> 16);
+        entry.move = move;
+        return true;
+    }
+
+    public void store(long key, int depth, double value, byte bound, long move) {
+        int slot = ((int) key & mask) * SLOT_SIZE;
+        long oldInfo = slots[slot + INFO];
+        if ((oldInfo & 0xFFFF) != 0) {
+            long oldMove = slots[slot + MOVE];
+            long oldKey = slots[slot + CHECK] ^ slots[slot + VALUE] ^ oldMove ^ oldInfo;
+            if ((int) (oldInfo >>> 32) == generation && oldKey != key && (oldInfo & 0xFFFF) > depth) {
+                return;
+            }
+            if (move == JointAction.NONE && oldKey == key) {
+                move = oldMove;
+            }
+        }
+        stores.increment();
+        long bits = Double.doubleToRawLongBits(value);
+        long info = Math.min(depth, 0xFFFF) | (bound & 0xFFL) << 16 | (long) generation << 32;
+        slots[slot + VALUE] = bits;
+        slots[slot + MOVE] = move;
+        slots[slot + INFO] = info;
+        slots[slot + CHECK] = key ^ bits ^ move ^ info;
+    }
+
+    public long getProbes() {
+        return probes.sum();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getStores() {
+        return stores.sum();
+    }
+
+    public double getHitRate() {
+        long probed = getProbes();
+        return probed == 0 ? 0 : (double) getHits() / probed;
+    }
+
+    public void resetCounters() {
+        probes.reset();
+        hits.reset();
+        stores.reset();
+    }
+}
@@ -0,0 +1,127 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.Arrays;
+
+/**
+ * A spatial index of the units: the map is cut into square buckets of SIZE x SIZE cells and each side keeps a
+ * linked list of its units per bucket, so range and nearest enemy queries only look at units in nearby buckets.
+ * <p>
+ * The grid itself only holds the geometry and is shared through the MapLayout. The lists live in a per state int[]
+ * (see newIndex) that is copied along with the units and relinked as units move: one head per bucket and side,
+ * then the next unit of every unit's list, with -1 ending a list. Dead units stay in the index where they fell,
+ * as the attack lists and in range counts still see them.
+ */
+final class UnitGrid {
+    private static final int SHIFT = 2;
+    static final int SIZE = 1 << SHIFT;
+
+    private final int columns, rows, numBuckets, numUnits, numGood;
+
+    UnitGrid(int width, int height, int numUnits, int numGood) {
+        this.columns = (width + SIZE - 1) >>> SHIFT;
+        this.rows = (height + SIZE - 1) >>> SHIFT;
+        this.numBuckets = columns * rows;
+        this.numUnits = numUnits;
+        this.numGood = numGood;
+    }
+
+    /**
+     * Whether the box of cells within range of a unit leaves out at least half of the buckets of a map, so a range
+     * query can skip them. Otherwise visiting the buckets only adds to reading every unit anyway.
+     *
+     * @param range The largest attack range of any unit
+     */
+    static boolean skipsBuckets(int width, int height, int range) {
+        int span = (2 * range + SIZE - 1 >>> SHIFT) + 1;
+        int columns = (width + SIZE - 1) >>> SHIFT;
+        int rows = (height + SIZE - 1) >>> SHIFT;
+        return 2 * Math.min(span, columns) * Math.min(span, rows) <= columns * rows;
+    }
+
+    /**
+     * @return An index with no units in it
+     */
+    int[] newIndex() {
+        int[] index = new int[2 * numBuckets + numUnits];
+        Arrays.fill(index, -1);
+        return index;
+    }
+
+    int column(int x) {
+        return x >> SHIFT;
+    }
+
+    int row(int y) {
+        return y >> SHIFT;
+    }
+
+    int columns() {
+        return columns;
+    }
+
+    int rows() {
+        return rows;
+    }
+
+    /**
+     * @return The column of the bucket holding x, or 0 if x is left of the map
+     */
+    int firstColumn(int x) {
+        return Math.max(column(x), 0);
+    }
+
+    /**
+     * @return The column of the bucket holding x, or the last column if x is right of the map
+     */
+    int lastColumn(int x) {
+        return Math.min(column(x), columns - 1);
+    }
+
+    int firstRow(int y) {
+        return Math.max(row(y), 0);
+    }
+
+    int lastRow(int y) {
+        return Math.min(row(y), rows - 1);
+    }
+
+    /**
+     * @param good Whether to list the footmen or the archers
+     * @return The first unit of the side in the bucket or -1
+     */
+    int first(int[] index, boolean good, int column, int row) {
+        return index[(good ? 0 : numBuckets) + column + row * columns];
+    }
+
+    /**
+     * @return The unit after this one in its bucket or -1
+     */
+    int next(int[] index, int unit) {
+        return index[2 * numBuckets + unit];
+    }
+
+    void insert(int[] index, int unit, int x, int y) {
+        int head = head(unit, x, y);
+        index[2 * numBuckets + unit] = index[head];
+        index[head] = unit;
+    }
+
+    /**
+     * Moves a unit's entry after the unit went from one cell to another. Nothing changes within a bucket.
+     */
+    void move(int[] index, int unit, int fromX, int fromY, int toX, int toY) {
+        if (column(fromX) == column(toX) && row(fromY) == row(toY)) {
+            return;
+        }
+        int link = head(unit, fromX, fromY);
+        while (index[link] != unit) {
+            link = 2 * numBuckets + index[link];
+        }
+        index[link] = index[2 * numBuckets + unit];
+        insert(index, unit, toX, toY);
+    }
+
+    private int head(int unit, int x, int y) {
+        return (unit < numGood ? 0 : numBuckets) + column(x) + row(y) * columns;
+    }
+}
@@ -0,0 +1,66 @@
+package edu.cwru.sepia.agent.minimax;
+
+/**
+ * Zobrist keys for GameState hashing.
+ * <p>
+ * Instead of a random table sized to the map, each key is derived from its feature (unit, max hp, position or hp)
+ * through a 64 bit mixing function. The keys are therefore identical across turns and episodes, which lets
+ * transposition table entries survive between calls to middleStep.
+ * <p>
+ * The unit's max hp is part of every unit key because the utility function scores hp relative to it.
+ */
+final class Zobrist {
+    private static final long POSITION = 0x9E3779B97F4A7C15L;
+    private static final long HEALTH = 0xC2B2AE3D27D4EB4FL;
+    private static final long LAYOUT = 0x27D4EB2F165667C5L;
+
+    /**
+     * XOR'd in whenever it is the archers' turn to move
+     */
+    static final long SIDE_TO_MOVE = mix(0x165667B19E3779F9L);
+
+    private Zobrist() {
+    }
+
+    static long position(int id, int possibleHp, int x, int y) {
+        return mix(mix(POSITION ^ unit(id, possibleHp)) + (((long) x << 32) | (y & 0xFFFFFFFFL)));
+    }
+
+    /**
+     * Dead units all hash the same regardless of how far below zero their hp went
+     */
+    static long health(int id, int possibleHp, int hp) {
+        return mix(mix(HEALTH ^ unit(id, possibleHp)) + Math.max(hp, 0));
+    }
+
+    /**
+     * Starts a hash of the parts of a map that positions do not cover, see GameState.getLayoutKey
+     */
+    static long layout(int width, int height) {
+        return fold(fold(LAYOUT, width), height);
+    }
+
+    /**
+     * Adds one more value to a layout hash. The order values are added in matters.
+     */
+    static long fold(long hash, long value) {
+        return mix(hash + value);
+    }
+
+    /**
+     * Mixed before the position or hp is added so that different units never share keys: adding x to the raw id
+     * would make unit 2 at x = 5 hash like unit 3 at x = 4.
+     */
+    private static long unit(int id, int possibleHp) {
+        return ((long) id << 32) | (possibleHp & 0xFFFFFFFFL);
+    }
+
+    /**
+     * SplitMix64 finalizer
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
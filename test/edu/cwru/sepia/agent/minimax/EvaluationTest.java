@@ -0,0 +1,91 @@
+package edu.cwru.sepia.agent.minimax;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The incremental evaluation gives the utility computed from scratch, bit for bit
+ */
+class EvaluationTest {
+    private static final int[][] MATCHUPS = {{1, 1}, {2, 1}, {2, 2}, {3, 3}};
+
+    @Test
+    void incrementalMatchesFromScratch() {
+        for (String map : Positions.MAPS) {
+            for (int[] matchup : MATCHUPS) {
+                for (long seed = 0; seed < 3; seed++) {
+                    List<GameState> incremental = game(map, matchup, seed, true);
+                    List<GameState> full = game(map, matchup, seed, false);
+                    assertEquals(full.size(), incremental.size());
+                    for (int i = 0; i < full.size(); i++) {
+                        assertSameUtilities(full.get(i), incremental.get(i));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Making and unmaking moves in place keeps the incremental features right
+     */
+    @Test
+    void unmakeRestoresTheUtility() {
+        for (String map : Positions.MAPS) {
+            for (GameState state : game(map, new int[]{2, 2}, 4, true)) {
+                GameState inPlace = state.copy();
+                for (long move : state.getJointActions()) {
+                    inPlace.makeMove(move);
+                    assertEquals(state.getChild(move).getUtility(), inPlace.getUtility());
+                    inPlace.unmakeMove();
+                    assertEquals(state.getUtility(), inPlace.getUtility());
+                }
+            }
+        }
+    }
+
+    /**
+     * A search sets up the evaluation and pruning of its root, which leaves the states made before it as they were
+     */
+    @Test
+    void searchesLeaveEarlierStatesAlone() {
+        List<GameState> positions = Positions.game("maze", 2, 2, 5, 12);
+        GameState first = positions.get(0);
+        long[] moves = first.getJointActions();
+        double[] utilities = new double[moves.length];
+        for (int i = 0; i < moves.length; i++) {
+            utilities[i] = first.getChild(moves[i]).getUtility();
+        }
+        MinimaxAlphaBeta agent = new MinimaxAlphaBeta(0, new String[]{"2", "evaluation=incremental", "prune=on"});
+        for (GameState state : positions.subList(1, positions.size())) {
+            if (state.isPlayerTurn()) {
+                agent.playTurn(state);
+            }
+        }
+        agent.terminalStep(null, null);
+
+        assertArrayEquals(moves, first.getJointActions());
+        for (int i = 0; i < moves.length; i++) {
+            assertEquals(utilities[i], first.getChild(moves[i]).getUtility());
+        }
+    }
+
+    private static List<GameState> game(String map, int[] matchup, long seed, boolean incremental) {
+        Random random = new Random(seed);
+        GameState start = Positions.start(map, matchup[0], matchup[1], random);
+        start.setEvaluation(incremental, false);
+        return Positions.game(start, random, 60);
+    }
+
+    private static void assertSameUtilities(GameState full, GameState incremental) {
+        assertEquals(full.getZobristHash(), incremental.getZobristHash());
+        assertEquals(full.getUtility(), incremental.getUtility());
+        for (long move : full.getJointActions()) {
+            assertEquals(full.getChild(move).getUtility(), incremental.getChild(move).getUtility());
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package edu.cwru.sepia.agent.minimax;
+
+import edu.cwru.sepia.action.Action;
+import edu.cwru.sepia.action.DirectedAction;
+import edu.cwru.sepia.action.TargetedAction;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class FactoredSearchTest {
+    /**
+     * Dead footmen before the living ones, so that the side has footmen past JointAction.MAX_UNITS
+     */
+    private static final int DEAD = 6;
+    private static final int[][] LIVING = {{1, 3}, {1, 7}, {2, 5}, {3, 9}};
+    private static final String[][] SETTINGS = {
+            {"tt=off"}, {}, {"pvs=on"}, {"inPlace=on"}, {"arena=on"}, {"inPlace=on", "arena=on", "pvs=on"}
+    };
+
+    /**
+     * Choosing one unit's action at a time finds the value of searching the joint actions
+     */
+    @Test
+    void factoredSearchMatchesJointActions() {
+        int[][] matchups = {{2, 1}, {3, 2}};
+        for (String map : Positions.MAPS) {
+            for (int[] matchup : matchups) {
+                for (GameState state : Positions.game(map, matchup[0], matchup[1], 6, 12)) {
+                    if (!state.isPlayerTurn()) {
+                        continue;
+                    }
+                    for (int depth = 2; depth <= 3; depth++) {
+                        for (String prune : new String[]{"prune=off", "prune=legal"}) {
+                            assertEquals(value(state, depth, prune, "tt=off"),
+                                    value(state, depth, prune, "tt=off", "factored=on"),
+                                    map + " " + matchup[0] + "v" + matchup[1] + " depth " + depth + " " + prune);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A side of more units than a JointAction holds, most of them dead, is searched to the value and the move of
+     * the same position without the dead units, whatever the settings
+     */
+    @Test
+    void largeSidesAreSearchedWhole() {
+        for (String[] settings : SETTINGS) {
+            for (String prune : new String[]{"prune=off", "prune=legal"}) {
+                String[] args = new String[settings.length + 3];
+                args[0] = "2";
+                args[1] = prune;
+                args[2] = "factored=on";
+                System.arraycopy(settings, 0, args, 3, settings.length);
+                String message = Arrays.toString(args);
+                assertEquals(value(position(0), 2, prune),
+                        value(position(DEAD), 2, Arrays.copyOfRange(args, 1, args.length)), message);
+
+                Map<Integer, Action> expected = play(position(0), args);
+                Map<Integer, Action> played = play(position(DEAD), args);
+                assertEquals(expected.size(), played.size(), message);
+                for (Map.Entry<Integer, Action> action : expected.entrySet()) {
+                    assertEquals(describe(action.getValue(), 0),
+                            describe(played.get(action.getKey() + DEAD), DEAD), message);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sides too large for their joint actions to be listed are searched a unit at a time without factored=on, and
+     * with settings that need the listed joint actions the agent falls back on the serial minimax search
+     */
+    @Test
+    void largeSidesNeedNoSettings() {
+        String[][] settings = {{"2"}, {"2", "threads=2"}, {"2", "multiPv=3"}, {"2", "engine=mcts", "timeMs=100000"}};
+        Map<Integer, Action> expected = play(position(DEAD), new String[]{"2", "factored=on"});
+        for (String[] args : settings) {
+            Map<Integer, Action> played = play(position(DEAD), args);
+            assertEquals(expected.size(), played.size(), Arrays.toString(args));
+            for (Map.Entry<Integer, Action> action : expected.entrySet()) {
+                assertEquals(describe(action.getValue(), 0), describe(played.get(action.getKey()), 0),
+                        Arrays.toString(args));
+            }
+        }
+    }
+
+    /**
+     * Pondering searches the position after the footmen's action in place without changing the state playTurn
+     * returned, which the archers move from while it runs
+     */
+    @Test
+    void ponderingLeavesThePlayedStateAlone() {
+        MinimaxAlphaBeta agent = new MinimaxAlphaBeta(0, new String[]{"3", "factored=on", "inPlace=on", "ponder=on"});
+        GameState state = Positions.start("open", 2, 2, new Random(3));
+        for (int turn = 0; turn < 6 && !state.isGameOver(); turn++) {
+            state = agent.playTurn(state).state;
+            GameState played = state.copy();
+            long hash = state.getZobristHash();
+            for (long end = System.nanoTime() + 100_000_000L; System.nanoTime() < end; ) {
+                assertEquals(played, state, "turn " + turn);
+                assertEquals(hash, state.getZobristHash(), "turn " + turn);
+                assertFalse(state.isPlayerTurn(), "turn " + turn);
+            }
+            state = ArcherPolicy.KITE.play(state);
+        }
+        agent.terminalStep(null, null);
+    }
+
+    private static Map<Integer, Action> play(GameState state, String[] args) {
+        MinimaxAlphaBeta agent = new MinimaxAlphaBeta(0, args);
+        Map<Integer, Action> action = agent.playTurn(state).action;
+        agent.terminalStep(null, null);
+        return action;
+    }
+
+    /**
+     * @param dead The number of dead footmen before the living ones, taken off the target's id
+     */
+    private static String describe(Action action, int dead) {
+        if (action instanceof DirectedAction) {
+            return "move " + ((DirectedAction) action).getDirection();
+        }
+        return "attack " + (((TargetedAction) action).getTargetId() - dead);
+    }
+
+    /**
+     * Four footmen and two archers, after dead footmen that take the first slots
+     */
+    private static GameState position(int dead) {
+        GameState.Builder builder = new GameState.Builder(Positions.WIDTH, Positions.HEIGHT);
+        for (int i = 0; i < dead; i++) {
+            builder.addFootman(i, 0, i, 0, 10, 1);
+        }
+        for (int i = 0; i < LIVING.length; i++) {
+            builder.addFootman(dead + i, LIVING[i][0], LIVING[i][1], 160, 10, 1);
+        }
+        int archers = dead + LIVING.length;
+        return builder.addArcher(archers, 8, 4, 50, 6, 8).addArcher(archers + 1, 8, 8, 50, 6, 8).build();
+    }
+
+    private static double value(GameState state, int depth, String... settings) {
+        String[] args = new String[settings.length + 1];
+        args[0] = Integer.toString(depth);
+        System.arraycopy(settings, 0, args, 1, settings.length);
+        MinimaxAlphaBeta agent = new MinimaxAlphaBeta(0, args);
+        GameState root = state.copy();
+        root.setPruning(new SearchOptions(args).pruneIllegal, false);
+        double value = agent.alphaBetaValue(new GameStateChild(null, root), depth, Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY);
+        agent.terminalStep(null, null);
+        return value;
+    }
+}
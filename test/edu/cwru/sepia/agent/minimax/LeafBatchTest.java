@@ -0,0 +1,84 @@
+package edu.cwru.sepia.agent.minimax;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A LeafBatch gives every child the utility getUtility gives it, bit for bit
+ */
+class LeafBatchTest {
+    private final LeafBatch batch = new LeafBatch();
+
+    @Test
+    void batchMatchesGetUtility() {
+        int[][] matchups = {{1, 1}, {2, 1}, {2, 2}, {3, 2}};
+        for (String map : Positions.MAPS) {
+            for (int[] matchup : matchups) {
+                for (boolean incremental : new boolean[]{true, false}) {
+                    Random random = new Random(matchup[0] * 10 + matchup[1]);
+                    GameState start = Positions.start(map, matchup[0], matchup[1], random);
+                    start.setEvaluation(incremental, false);
+                    for (GameState state : Positions.game(start, random, 60)) {
+                        assertBatchMatches(state);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void indexedStatesAreRefused() {
+        final GameState state = lines(48, 32, 40);
+        assertTrue(state.hasSpatialIndex());
+        batch.clear();
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            @Override
+            public void execute() {
+                batch.evaluate(state);
+            }
+        });
+    }
+
+    /**
+     * Sides that large on a map too small for the spatial index are scanned, and so batched like any other
+     */
+    @Test
+    void smallMapsAreNotIndexed() {
+        GameState state = lines(Positions.WIDTH, Positions.HEIGHT, 40);
+        assertFalse(state.hasSpatialIndex());
+        batch.clear();
+        batch.add(JointAction.NONE);
+        batch.evaluate(state);
+        assertEquals(state.getUtility(), batch.getUtility(0));
+    }
+
+    /**
+     * n footmen in columns from the left edge and n archers in columns from the right edge
+     */
+    private static GameState lines(int width, int height, int n) {
+        GameState.Builder builder = new GameState.Builder(width, height);
+        for (int i = 0; i < n; i++) {
+            int x = i / (height - 2);
+            int y = 1 + i % (height - 2);
+            builder.addFootman(i, x, y, 160, 10, 1);
+            builder.addArcher(n + i, width - 1 - x, y, 50, 6, 8);
+        }
+        return builder.build();
+    }
+
+    private void assertBatchMatches(GameState state) {
+        long[] moves = state.getJointActions();
+        int size = batch.evaluateChildren(state);
+        assertEquals(moves.length, size);
+        for (int i = 0; i < size; i++) {
+            assertEquals(state.getChild(moves[i]).getUtility(), batch.getUtility(i));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package edu.cwru.sepia.agent.minimax;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ParallelSearchTest {
+    private static final int[][] MATCHUPS = {{2, 1}, {2, 2}, {3, 2}};
+
+    /**
+     * Splitting nodes between threads searches every sibling, so without a transposition table, whose entries
+     * the threads would race on, the root value is exactly the serial one
+     */
+    @Test
+    void splitSearchMatchesSerial() {
+        assertMatchesSerial("tt=off");
+    }
+
+    /**
+     * With the shared transposition table and null window searches, as the agent plays
+     */
+    @Test
+    void splitSearchWithTheTableMatchesSerial() {
+        assertMatchesSerial("tt=on", "pvs=on");
+    }
+
+    /**
+     * terminalStep shuts the pool down, and the next episode's search starts another one
+     */
+    @Test
+    void searchesAgainAfterTerminalStep() {
+        GameState state = Positions.game("maze", 2, 2, 4, 1).get(0);
+        MinimaxAlphaBeta agent = new MinimaxAlphaBeta(0, new String[]{"3", "threads=2", "tt=off"});
+        GameStateChild root = new GameStateChild(null, state);
+        double value = agent.alphaBetaValue(root, 3, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        agent.terminalStep(null, null);
+        assertEquals(value, agent.alphaBetaValue(root, 3, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY));
+        agent.terminalStep(null, null);
+    }
+
+    private static void assertMatchesSerial(String... settings) {
+        for (String map : Positions.MAPS) {
+            for (int[] matchup : MATCHUPS) {
+                for (GameState state : Positions.game(map, matchup[0], matchup[1], 3, 16)) {
+                    if (!state.isPlayerTurn()) {
+                        continue;
+                    }
+                    for (int depth = 2; depth <= 4; depth++) {
+                        assertEquals(value(state, depth, 1, settings), value(state, depth, 2, settings),
+                                map + " " + matchup[0] + "v" + matchup[1] + " depth " + depth);
+                    }
+                }
+            }
+        }
+    }
+
+    private static double value(GameState state, int depth, int threads, String... settings) {
+        String[] args = new String[settings.length + 2];
+        args[0] = Integer.toString(depth);
+        args[1] = "threads=" + threads;
+        System.arraycopy(settings, 0, args, 2, settings.length);
+        MinimaxAlphaBeta agent = new MinimaxAlphaBeta(0, args);
+        double value = agent.alphaBetaValue(new GameStateChild(null, state), depth, Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY);
+        agent.terminalStep(null, null);
+        return value;
+    }
+}
@@ -0,0 +1,106 @@
+package edu.cwru.sepia.agent.minimax;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Positions for the tests, built without SEPIA on the 19x13 maps of the benchmarks' Boards: open, without trees,
+ * and maze, with three walls of trees that make path distances far from straight line distances.
+ */
+final class Positions {
+    static final String[] MAPS = {"open", "maze"};
+    static final int WIDTH = 19, HEIGHT = 13;
+
+    private static final int FOOTMAN_HP = 160, FOOTMAN_ATTACK = 10, FOOTMAN_RANGE = 1;
+    private static final int ARCHER_HP = 50, ARCHER_ATTACK = 6, ARCHER_RANGE = 8;
+
+    private Positions() {
+    }
+
+    /**
+     * The footmen on random free cells of the three columns by the left edge and the archers by the right edge,
+     * with ids [0, footmen) and [footmen, footmen + archers)
+     */
+    static GameState start(String map, int footmen, int archers, Random random) {
+        boolean[] taken = new boolean[WIDTH * HEIGHT];
+        GameState.Builder builder = new GameState.Builder(WIDTH, HEIGHT);
+        if (map.equals("maze")) {
+            addWall(builder, taken, 5, 0, HEIGHT - 3);
+            addWall(builder, taken, 9, 2, HEIGHT - 1);
+            addWall(builder, taken, 13, 0, HEIGHT - 3);
+        } else if (!map.equals("open")) {
+            throw new IllegalArgumentException("Unknown map " + map);
+        }
+        for (int i = 0; i < footmen; i++) {
+            int cell = freeCell(taken, 1, random);
+            builder.addFootman(i, cell % WIDTH, cell / WIDTH, FOOTMAN_HP, FOOTMAN_ATTACK, FOOTMAN_RANGE);
+        }
+        for (int i = 0; i < archers; i++) {
+            int cell = freeCell(taken, WIDTH - 4, random);
+            builder.addArcher(footmen + i, cell % WIDTH, cell / WIDTH, ARCHER_HP, ARCHER_ATTACK, ARCHER_RANGE);
+        }
+        return builder.build();
+    }
+
+    /**
+     * The positions of a game from start(map, footmen, archers, new Random(seed)), see game(GameState, Random, int)
+     */
+    static List<GameState> game(String map, int footmen, int archers, long seed, int count) {
+        Random random = new Random(seed);
+        return game(start(map, footmen, archers, random), random, count);
+    }
+
+    /**
+     * The positions of a game from state, with both sides to move, until it ends or count positions were played.
+     * The footmen mostly close in, so the game gets to the fighting, and the archers kite.
+     */
+    static List<GameState> game(GameState state, Random random, int count) {
+        List<GameState> positions = new ArrayList<GameState>();
+        while (positions.size() < count && !state.isGameOver()) {
+            positions.add(state);
+            if (state.isPlayerTurn()) {
+                state = state.getChild(footmenMove(state, random));
+            } else {
+                state = ArcherPolicy.KITE.play(state);
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * The joint action that closes in the most, or one third of the time any joint action
+     */
+    private static long footmenMove(GameState state, Random random) {
+        long[] moves = state.getJointActions();
+        if (random.nextInt(3) == 0) {
+            return moves[random.nextInt(moves.length)];
+        }
+        long best = moves[0];
+        for (long move : moves) {
+            if (JointAction.countAttacks(move) > JointAction.countAttacks(best) ||
+                    JointAction.countAttacks(move) == JointAction.countAttacks(best) &&
+                            state.getApproachScore(move) > state.getApproachScore(best)) {
+                best = move;
+            }
+        }
+        return best;
+    }
+
+    private static int freeCell(boolean[] taken, int x, Random random) {
+        while (true) {
+            int cell = x + random.nextInt(3) + (1 + random.nextInt(HEIGHT - 2)) * WIDTH;
+            if (!taken[cell]) {
+                taken[cell] = true;
+                return cell;
+            }
+        }
+    }
+
+    private static void addWall(GameState.Builder builder, boolean[] taken, int x, int fromY, int toY) {
+        for (int y = fromY; y <= toY; y++) {
+            builder.addTree(x, y);
+            taken[x + y * WIDTH] = true;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package edu.cwru.sepia.agent.minimax;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RootMovesTest {
+    private static final String[][] SETTINGS = {
+            {}, {"pvs=on"}, {"multiPv=3"}, {"multiPv=3", "pvs=on"}, {"threads=2"}, {"threads=2", "pvs=on"},
+            {"multiPv=3", "threads=2"}, {"timeMs=100000", "pvs=on", "threads=2"}
+    };
+
+    /**
+     * The moves playTurn keeps are the best ones with their exact scores, from every root move searched on its
+     * own without the table, and the move played is the best one
+     */
+    @Test
+    void rootMovesAreTheBestWithExactScores() {
+        for (String map : Positions.MAPS) {
+            for (GameState state : Positions.game(map, 2, 2, 5, 16)) {
+                if (!state.isPlayerTurn()) {
+                    continue;
+                }
+                for (int depth = 2; depth <= 3; depth++) {
+                    assertRootMoves(state, depth);
+                }
+            }
+        }
+    }
+
+    /**
+     * Without a living footman there is nothing to search, with or without a time limit
+     */
+    @Test
+    void rootsWithoutMovesPlayNothing() {
+        GameState state = new GameState.Builder(Positions.WIDTH, Positions.HEIGHT)
+                .addFootman(0, 2, 2, 0, 10, 1)
+                .addArcher(1, 16, 5, 50, 6, 8)
+                .build();
+        for (String[] args : new String[][]{{"2"}, {"2", "timeMs=1000"}, {"2", "factored=on"},
+                {"2", "timeMs=1000", "factored=on"}}) {
+            MinimaxAlphaBeta agent = new MinimaxAlphaBeta(0, args);
+            assertTrue(agent.playTurn(state).action.isEmpty(), Arrays.toString(args));
+            agent.terminalStep(null, null);
+        }
+    }
+
+    private static void assertRootMoves(GameState state, int depth) {
+        MinimaxAlphaBeta exact = new MinimaxAlphaBeta(0, new String[]{Integer.toString(depth), "tt=off"});
+        // which also sets the search up to take the root's children one ply down
+        double value = exact.alphaBetaValue(new GameStateChild(null, state), depth, Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY);
+        long[] moves = state.getJointActions();
+        double[] scores = new double[moves.length];
+        for (int i = 0; i < moves.length; i++) {
+            scores[i] = exact.minVal(new GameStateChild(null, state.getChild(moves[i])), depth - 1,
+                    Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        }
+        double[] sorted = scores.clone();
+        Arrays.sort(sorted);
+        assertEquals(value, sorted[sorted.length - 1]);
+
+        for (String[] settings : SETTINGS) {
+            String[] args = new String[settings.length + 1];
+            args[0] = Integer.toString(depth);
+            System.arraycopy(settings, 0, args, 1, settings.length);
+            MinimaxAlphaBeta agent = new MinimaxAlphaBeta(0, args);
+            GameStateChild played = agent.playTurn(state);
+            agent.terminalStep(null, null);
+            String message = Arrays.toString(args);
+
+            RootMoves rootMoves = agent.getRootMoves();
+            int multiPv = new SearchOptions(args).multiPv;
+            assertEquals(Math.min(multiPv, moves.length), rootMoves.size(), message);
+            for (int rank = 0; rank < rootMoves.size(); rank++) {
+                assertEquals(sorted[sorted.length - 1 - rank], rootMoves.getScore(rank), message);
+                assertEquals(scores[indexOf(moves, rootMoves.getMove(rank))], rootMoves.getScore(rank), message);
+            }
+            assertEquals(sorted[sorted.length - 1], scores[indexOf(moves, state.jointActionOf(played.action))],
+                    message);
+        }
+    }
+
+    private static int indexOf(long[] moves, long move) {
+        for (int i = 0; i < moves.length; i++) {
+            if (moves[i] == move) {
+                return i;
+            }
+        }
+        throw new AssertionError("Not a root move: " + move);
+    }
+}
@@ -0,0 +1,154 @@
+package edu.cwru.sepia.agent.minimax;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TablebaseTest {
+    private static final int WIDTH = 5, HEIGHT = 4, TREE_X = 2, TREE_Y = 1;
+    // the footmen outlast any win, and two hits kill the archer
+    private static final int FOOTMAN_HP = 1000, FOOTMAN_ATTACK = 10, ARCHER_HP = 20, ARCHER_ATTACK = 1;
+    private static final int ARCHER_RANGE = 2;
+    /**
+     * Plys searched by brute force
+     */
+    private static final int PLYS = 7;
+
+    @TempDir
+    File directory;
+
+    /**
+     * With illegal actions pruned the tables hold, for every position, the quickest forced win the search finds
+     */
+    @Test
+    void prunedTablesAreExact() throws IOException {
+        assertTables(true);
+    }
+
+    /**
+     * Without pruning the archer may stand still by shooting dead footmen the tables leave out, so they only
+     * promise wins the search finds
+     */
+    @Test
+    void unprunedTablesAreSound() throws IOException {
+        assertTables(false);
+    }
+
+    @Test
+    void rulesHaveTheirOwnTables() {
+        assertNotEquals(new Tablebase(position(true, 2, 0, 0, 4, 0, 3, ARCHER_HP)).getKey(),
+                new Tablebase(position(false, 2, 0, 0, 4, 0, 3, ARCHER_HP)).getKey());
+    }
+
+    private void assertTables(boolean pruned) throws IOException {
+        Tablebase tables = new Tablebase(position(pruned, 2, 0, 0, 4, 0, 3, ARCHER_HP));
+        for (int footmen = 1; footmen <= 2; footmen++) {
+            Tablebase.generate(position(pruned, 2, 0, 0, 4, 0, 3, ARCHER_HP), footmen, directory);
+            assertTrue(tables.load(directory, footmen));
+        }
+        Map<Long, Boolean> wins = new HashMap<Long, Boolean>();
+        int won = 0;
+        for (int footmen = 1; footmen <= 2; footmen++) {
+            for (int first = 0; first < WIDTH * HEIGHT; first++) {
+                for (int second = footmen == 1 ? 0 : first + 1; second < WIDTH * HEIGHT; second++) {
+                    for (int archer = 0; archer < WIDTH * HEIGHT; archer++) {
+                        if (isTree(first) || isTree(second) || isTree(archer) || archer == first ||
+                                footmen == 2 && (archer == second || first == second)) {
+                            continue;
+                        }
+                        for (int hp = FOOTMAN_ATTACK; hp <= ARCHER_HP; hp += FOOTMAN_ATTACK) {
+                            for (int order = 0; order < footmen; order++) {
+                                int f = order == 0 ? first : second;
+                                int g = order == 0 ? second : first;
+                                GameState state = position(pruned, footmen, f % WIDTH, f / WIDTH, g % WIDTH,
+                                        g / WIDTH, archer, hp);
+                                // and the archer to move, the footmen having stood still
+                                for (GameState toMove : new GameState[]{state, state.getChild(JointAction.NONE)}) {
+                                    won += assertProbe(tables, toMove, pruned, wins);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        assertTrue(won > 1000, won + " wins");
+    }
+
+    /**
+     * @return 1 if the tables give the position a win within PLYS, else 0
+     */
+    private static int assertProbe(Tablebase tables, GameState state, boolean pruned, Map<Long, Boolean> wins) {
+        int distance = tables.probe(state);
+        int plys = 0;
+        for (int d = 1; d <= PLYS && plys == 0; d++) {
+            if (wins(state, d, wins)) {
+                plys = d;
+            }
+        }
+        if (pruned) {
+            assertEquals(plys, distance > PLYS ? 0 : distance);
+        } else if (distance > 0 && distance <= PLYS) {
+            assertTrue(plys > 0 && plys <= distance, plys + " plys, tables " + distance);
+        }
+        return distance > 0 && distance <= PLYS ? 1 : 0;
+    }
+
+    /**
+     * @return Whether the footmen kill the archer within plys whatever it does
+     */
+    private static boolean wins(GameState state, int plys, Map<Long, Boolean> wins) {
+        int archer = state.getNumFootmen();
+        if (state.getUnitHp(archer) <= 0) {
+            return true;
+        }
+        if (plys == 0) {
+            return false;
+        }
+        long key = state.getZobristHash() * 31 + plys;
+        Boolean known = wins.get(key);
+        if (known != null) {
+            return known;
+        }
+        long[] moves = state.getJointActions();
+        boolean won = !state.isPlayerTurn() && moves.length > 0;
+        for (long move : moves) {
+            boolean childWon = wins(state.getChild(move), plys - 1, wins);
+            if (state.isPlayerTurn() ? childWon : !childWon) {
+                won = state.isPlayerTurn();
+                break;
+            }
+        }
+        wins.put(key, won);
+        return won;
+    }
+
+    private static boolean isTree(int cell) {
+        return cell == TREE_X + TREE_Y * WIDTH;
+    }
+
+    /**
+     * The footmen, the first of them on (x, y), and the archer on the cell with hp left, footmen to move
+     */
+    private static GameState position(boolean pruned, int footmen, int x, int y, int secondX, int secondY,
+                                      int archer, int hp) {
+        GameState.Builder builder = new GameState.Builder(WIDTH, HEIGHT)
+                .addTree(TREE_X, TREE_Y)
+                .addFootman(0, x, y, FOOTMAN_HP, FOOTMAN_ATTACK, 1);
+        if (footmen == 2) {
+            builder.addFootman(1, secondX, secondY, FOOTMAN_HP, FOOTMAN_ATTACK, 1);
+        }
+        GameState state = builder.addArcher(footmen, archer % WIDTH, archer / WIDTH, hp, ARCHER_ATTACK,
+                ARCHER_RANGE).build();
+        state.setPruning(pruned, false);
+        return state;
+    }
+}
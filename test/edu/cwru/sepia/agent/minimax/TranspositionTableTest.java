@@ -0,0 +1,66 @@
+package edu.cwru.sepia.agent.minimax;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TranspositionTableTest {
+    private final TranspositionTable table = new TranspositionTable(4);
+    private final TranspositionTable.Entry entry = new TranspositionTable.Entry();
+
+    @Test
+    void probeReturnsWhatWasStored() {
+        long key = 0x123456789ABCDEF0L;
+        table.store(key, 5, -17.0375, TranspositionTable.LOWER, 0x0102L);
+        assertTrue(table.probe(key, entry));
+        assertEquals(key, entry.key);
+        assertEquals(5, entry.depth);
+        assertEquals(-17.0375, entry.value);
+        assertEquals(TranspositionTable.LOWER, entry.bound);
+        assertEquals(0x0102L, entry.move);
+    }
+
+    @Test
+    void otherKeysInTheSlotMiss() {
+        long key = 0x40L;
+        table.store(key, 3, 1.5, TranspositionTable.EXACT, 1L);
+        assertFalse(table.probe(key + (1L << 40), entry));
+        assertFalse(table.probe(key + 1, entry));
+    }
+
+    @Test
+    void deeperEntriesStayUntilTheNextSearch() {
+        long key = 0x50L;
+        long other = key + (1L << 40);
+        table.store(key, 6, 2.0, TranspositionTable.EXACT, 1L);
+        table.store(other, 2, 3.0, TranspositionTable.EXACT, 2L);
+        assertTrue(table.probe(key, entry));
+        assertFalse(table.probe(other, entry));
+
+        table.newSearch();
+        table.store(other, 2, 3.0, TranspositionTable.EXACT, 2L);
+        assertTrue(table.probe(other, entry));
+        assertEquals(3.0, entry.value);
+        assertFalse(table.probe(key, entry));
+    }
+
+    @Test
+    void upperBoundsKeepTheStoredMove() {
+        long key = 0x70L;
+        table.store(key, 3, 4.0, TranspositionTable.EXACT, 0x05L);
+        table.store(key, 4, 1.0, TranspositionTable.UPPER, JointAction.NONE);
+        assertTrue(table.probe(key, entry));
+        assertEquals(4, entry.depth);
+        assertEquals(TranspositionTable.UPPER, entry.bound);
+        assertEquals(0x05L, entry.move);
+    }
+
+    @Test
+    void clearEmptiesTheTable() {
+        table.store(0x60L, 4, 0.5, TranspositionTable.UPPER, JointAction.NONE);
+        table.clear();
+        assertFalse(table.probe(0x60L, entry));
+    }
+}
@@ -0,0 +1,83 @@
+package edu.cwru.sepia.agent.minimax;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class ZobristTest {
+    private static final int NORTH = JointAction.move(0), EAST = JointAction.move(1), SOUTH = JointAction.move(2);
+
+    @Test
+    void unitsDoNotShareKeys() {
+        assertNotEquals(Zobrist.position(2, 160, 5, 3), Zobrist.position(3, 160, 4, 3));
+        assertNotEquals(Zobrist.health(2, 160, 50), Zobrist.health(3, 160, 49));
+    }
+
+    /**
+     * A child hashes the same whether it is built or moved to in place, and unmaking the move restores the hash
+     */
+    @Test
+    void makeAndUnmakeKeepTheHash() {
+        for (String map : Positions.MAPS) {
+            for (GameState state : Positions.game(map, 2, 2, 1, 30)) {
+                for (long move : state.getJointActions()) {
+                    GameState child = state.getChild(move);
+                    GameState inPlace = state.copy();
+                    inPlace.makeMove(move);
+                    assertEquals(child, inPlace);
+                    assertEquals(child.getZobristHash(), inPlace.getZobristHash());
+                    inPlace.unmakeMove();
+                    assertEquals(state, inPlace);
+                    assertEquals(state.getZobristHash(), inPlace.getZobristHash());
+                }
+            }
+        }
+    }
+
+    /**
+     * Positions that differ hash differently, over every child of a game's positions
+     */
+    @Test
+    void distinctPositionsHashApart() {
+        for (String map : Positions.MAPS) {
+            Map<Long, GameState> seen = new HashMap<Long, GameState>();
+            for (GameState state : Positions.game(map, 2, 2, 2, 40)) {
+                for (long move : state.getJointActions()) {
+                    GameState child = state.getChild(move);
+                    GameState other = seen.put(child.getZobristHash(), child);
+                    if (other != null) {
+                        assertEquals(other, child);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The footmen reaching the same cells in another order, with the archer stepping away and back, give the same
+     * position and the same hash
+     */
+    @Test
+    void transpositionsHashAlike() {
+        GameState start = new GameState.Builder(Positions.WIDTH, Positions.HEIGHT)
+                .addFootman(0, 2, 2, 160, 10, 1)
+                .addFootman(1, 2, 8, 160, 10, 1)
+                .addArcher(2, 16, 5, 50, 6, 8)
+                .build();
+        GameState a = start.getChild(footmen(EAST, EAST)).getChild(NORTH)
+                .getChild(footmen(SOUTH, JointAction.WAIT)).getChild(SOUTH);
+        GameState b = start.getChild(footmen(SOUTH, EAST)).getChild(SOUTH)
+                .getChild(footmen(EAST, JointAction.WAIT)).getChild(NORTH);
+        assertEquals(a, b);
+        assertEquals(a.getZobristHash(), b.getZobristHash());
+        assertNotEquals(a.getZobristHash(), start.getChild(footmen(EAST, EAST)).getChild(NORTH).getZobristHash());
+    }
+
+    private static long footmen(int first, int second) {
+        return JointAction.withUnitAction(JointAction.withUnitAction(JointAction.NONE, 0, first), 1, second);
+    }
+}